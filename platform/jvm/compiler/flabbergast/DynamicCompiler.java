@@ -8,13 +8,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 
-public class DynamicCompiler extends LoadLibraries {
+public class DynamicCompiler extends LoadLibraries implements DeferredUriLoader {
 
   class AutoLoaderClassVisitor extends ClassVisitor {
     private String class_name;
@@ -73,46 +74,82 @@ public class DynamicCompiler extends LoadLibraries {
     }
   }
 
+  /** A library that is being, or has been, compiled. */
+  private static final class Compilation {
+    private boolean done;
+    private LibraryFailure failure;
+    private Class<? extends Future> result;
+  }
+
   private Map<String, Class<? extends Future>> cache =
-      new HashMap<String, Class<? extends Future>>();
+      new ConcurrentHashMap<String, Class<? extends Future>>();
   private final ClassLoader class_loader = new ClassLoader();
 
   private final ErrorCollector collector;
 
-  private Map<String, Class<?>> other_cache = new HashMap<String, Class<?>>();
-
-  private CompilationUnit<Class<? extends Future>> unit =
-      new CompilationUnit<Class<? extends Future>>() {
-
-        @Override
-        public ClassVisitor defineClass(
-            int access, String class_name, Class<?> superclass, Class<?>... interfaces) {
-          ClassVisitor visitor =
-              new AutoLoaderClassVisitor(
-                  new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES));
-          String[] interface_names = new String[interfaces.length];
-          for (int it = 0; it < interfaces.length; it++) {
-            interface_names[it] = getInternalName(interfaces[it]);
-          }
-          visitor.visit(
-              Opcodes.V1_5, access, class_name, null, getInternalName(superclass), interface_names);
-          return visitor;
-        }
+  /**
+   * The libraries requested so far. Each has its own lock, so a library is compiled only once, but
+   * different libraries can be compiled at the same time.
+   */
+  private final ConcurrentMap<String, Compilation> compilations =
+      new ConcurrentHashMap<String, Compilation>();
 
-        @Override
-        protected Class<? extends Future> doMagic(String name) {
-          return cache.get(name);
-        }
-      };
+  private Map<String, Class<?>> other_cache = new ConcurrentHashMap<String, Class<?>>();
+
+  private final CompilationUnit<Class<? extends Future>> unit = createCompilationUnit();
 
   public DynamicCompiler(ErrorCollector collector) {
     this.collector = collector;
   }
 
+  /**
+   * Create a compilation unit that loads the classes it generates. Units keep state while
+   * generating code, so each library is compiled in a unit of its own.
+   */
+  private CompilationUnit<Class<? extends Future>> createCompilationUnit() {
+    return new CompilationUnit<Class<? extends Future>>() {
+
+      @Override
+      public ClassVisitor defineClass(
+          int access, String class_name, Class<?> superclass, Class<?>... interfaces) {
+        ClassVisitor visitor =
+            new AutoLoaderClassVisitor(
+                new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES));
+        String[] interface_names = new String[interfaces.length];
+        for (int it = 0; it < interfaces.length; it++) {
+          interface_names[it] = getInternalName(interfaces[it]);
+        }
+        visitor.visit(
+            Opcodes.V1_5, access, class_name, null, getInternalName(superclass), interface_names);
+        return visitor;
+      }
+
+      @Override
+      protected Class<? extends Future> doMagic(String name) {
+        return cache.get(name);
+      }
+    };
+  }
+
   public CompilationUnit<Class<? extends Future>> getCompilationUnit() {
     return unit;
   };
 
+  @Override
+  public boolean canResolveUri(String uri, Ptr<LibraryFailure> reason) {
+    if (compilations.containsKey(uri)) {
+      return true;
+    }
+    if (!uri.startsWith("lib:")) {
+      return false;
+    }
+    if (getFinder().findAll(uri.substring(4), ".jo_0", ".o_0").isEmpty()) {
+      reason.set(LibraryFailure.MISSING);
+      return false;
+    }
+    return true;
+  }
+
   @Override
   public int getPriority() {
     return -50;
@@ -125,29 +162,35 @@ public class DynamicCompiler extends LoadLibraries {
 
   @Override
   public Class<? extends Future> resolveUri(String uri, Ptr<LibraryFailure> reason) {
-    if (cache.containsKey(uri)) {
-      return cache.get(uri);
-    }
     if (!uri.startsWith("lib:")) {
       return null;
     }
+    Compilation compilation = compilations.computeIfAbsent(uri, k -> new Compilation());
+    synchronized (compilation) {
+      if (!compilation.done) {
+        compile(uri, compilation);
+        compilation.done = true;
+      }
+      reason.set(compilation.failure);
+      return compilation.result;
+    }
+  }
+
+  private void compile(String uri, Compilation compilation) {
     String type_name = "flabbergast/library/" + uri.substring(4);
     for (File f : getFinder().findAll(uri.substring(4), ".jo_0", ".o_0")) {
       try {
         Parser parser = Parser.open(f.getAbsolutePath());
-        Class<? extends Future> result = parser.parseFile(collector, unit, type_name);
-        reason.set(result == null ? LibraryFailure.CORRUPT : null);
-        cache.put(uri, result);
+        compilation.result = parser.parseFile(collector, createCompilationUnit(), type_name);
+        compilation.failure = compilation.result == null ? LibraryFailure.CORRUPT : null;
         parser = null;
         System.gc();
-        return result;
       } catch (Exception e) {
         System.err.println(e.getMessage());
-        reason.set(LibraryFailure.CORRUPT);
-        return null;
+        compilation.failure = LibraryFailure.CORRUPT;
       }
+      return;
     }
-    reason.set(LibraryFailure.MISSING);
-    return null;
+    compilation.failure = LibraryFailure.MISSING;
   }
 }
@@ -5,10 +5,12 @@ import static org.objectweb.asm.Type.getInternalName;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -25,12 +27,30 @@ class Environment implements CodeRegion {
         throws Exception;
   }
 
+  /** The names of the attributes in a list of frame literal attributes. */
+  static Set<String> attributeNames(List<? extends AstNode> attributes) {
+    Set<String> names = new HashSet<String>();
+    for (AstNode node : attributes) {
+      if (node instanceof attribute) {
+        names.add(RevCons.toString(((attribute) node).name));
+      }
+    }
+    return names;
+  }
+
   Map<String, NameInfo> children = new HashMap<String, NameInfo>();
   boolean combinatorial_explosion;
   private int end_column;
   private int end_row;
   private String file_name;
   boolean force_back;
+
+  /**
+   * The attributes of the frame being defined, if this environment is the root of one of its
+   * attribute definitions. Lookups of these names try that frame first at run time.
+   */
+  private Set<String> frame_names;
+
   Map<AstNode, Entry<TypeSet, Boolean>> intrinsics =
       new HashMap<AstNode, Entry<TypeSet, Boolean>>();
   private Environment parent;
@@ -67,6 +87,10 @@ class Environment implements CodeRegion {
     this.top_level = top_level;
   }
 
+  void addFrameNames(List<? extends AstNode> attributes) {
+    frame_names = attributeNames(attributes);
+  }
+
   void addForbiddenName(String name) {
     children.put(name, null);
   }
@@ -145,7 +169,8 @@ class Environment implements CodeRegion {
               getInternalName(MutableFrame.class),
               "<init>",
               org.objectweb.asm.Type.getConstructorDescriptor(
-                  MutableFrame.class.getConstructors()[0]));
+                  MutableFrame.class.getConstructor(
+                      TaskMaster.class, SourceReference.class, Context.class, Frame.class)));
       child_frame.store(generator);
 
       generator.getBuilder().visitVarInsn(Opcodes.ALOAD, 0);
@@ -450,6 +475,16 @@ class Environment implements CodeRegion {
     return copy_info;
   }
 
+  /** Check if a free name is an attribute of the frame being defined. */
+  private boolean isFrameName(String name) {
+    for (Environment environment = this; environment != null; environment = environment.parent) {
+      if (environment.frame_names != null) {
+        return environment.frame_names.contains(name);
+      }
+    }
+    return false;
+  }
+
   public NameInfo lookup(
       ErrorCollector collector, Iterable<? extends CharSequence> names, Ptr<Boolean> success) {
     Iterator<? extends CharSequence> iter = names.iterator();
@@ -477,7 +512,8 @@ class Environment implements CodeRegion {
       }
       return back.lookup(collector, iter, success);
     }
-    NameInfo info = new OpenNameInfo(this, current);
+    NameInfo info =
+        isFrameName(current) ? new SelfNameInfo(this, current) : new OpenNameInfo(this, current);
     children.put(current, info);
     return info.lookup(collector, iter, success);
   }
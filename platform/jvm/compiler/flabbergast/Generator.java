@@ -8,6 +8,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -681,6 +682,16 @@ abstract class Generator {
       run_builder.visitMaxs(0, 0);
       run_builder.visitEnd();
     }
+    // Each state is a point where the computation may wait for another value, so the number of
+    // states is a rough measure of how much work it does.
+    MethodVisitor cost_builder =
+        type_builder.visitMethod(
+            Opcodes.ACC_PUBLIC, "estimateCost", makeSignature(int.class), null, null);
+    cost_builder.visitCode();
+    cost_builder.visitLdcInsn(entry_points.size());
+    cost_builder.visitInsn(Opcodes.IRETURN);
+    cost_builder.visitMaxs(0, 0);
+    cost_builder.visitEnd();
     type_builder.visitEnd();
   }
 
@@ -909,6 +920,65 @@ abstract class Generator {
     task_master.load(builder);
   }
 
+  /**
+   * Create a static field holding the inline cache for a lookup in this function and load it,
+   * creating the cache on first use.
+   */
+  public void loadLookupSite() {
+    String name = "lookup_site$" + (num_fields++);
+    String descriptor = getDescriptor(LookupSite.class);
+    type_builder
+        .visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name, descriptor, null, null)
+        .visitEnd();
+    Label ready = new Label();
+    builder.visitFieldInsn(Opcodes.GETSTATIC, class_name, name, descriptor);
+    builder.visitInsn(Opcodes.DUP);
+    builder.visitJumpInsn(Opcodes.IFNONNULL, ready);
+    builder.visitInsn(Opcodes.POP);
+    builder.visitTypeInsn(Opcodes.NEW, getInternalName(LookupSite.class));
+    builder.visitInsn(Opcodes.DUP);
+    builder.visitMethodInsn(
+        Opcodes.INVOKESPECIAL, getInternalName(LookupSite.class), "<init>", "()V");
+    builder.visitInsn(Opcodes.DUP);
+    builder.visitFieldInsn(Opcodes.PUTSTATIC, class_name, name, descriptor);
+    builder.visitLabel(ready);
+  }
+
+  /**
+   * Create a static field holding the shape of a frame literal with the given attributes and load
+   * it, creating the shape on first use.
+   */
+  public void loadFrameShape(List<? extends AstNode> attributes) {
+    String name = "frame_shape$" + (num_fields++);
+    String descriptor = getDescriptor(FrameShape.class);
+    type_builder
+        .visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, name, descriptor, null, null)
+        .visitEnd();
+    List<String> names = new ArrayList<String>(Environment.attributeNames(attributes));
+    Collections.sort(names);
+    Label ready = new Label();
+    builder.visitFieldInsn(Opcodes.GETSTATIC, class_name, name, descriptor);
+    builder.visitInsn(Opcodes.DUP);
+    builder.visitJumpInsn(Opcodes.IFNONNULL, ready);
+    builder.visitInsn(Opcodes.POP);
+    builder.visitLdcInsn(names.size());
+    builder.visitTypeInsn(Opcodes.ANEWARRAY, getInternalName(String.class));
+    for (int it = 0; it < names.size(); it++) {
+      builder.visitInsn(Opcodes.DUP);
+      builder.visitLdcInsn(it);
+      builder.visitLdcInsn(names.get(it));
+      builder.visitInsn(Opcodes.AASTORE);
+    }
+    builder.visitMethodInsn(
+        Opcodes.INVOKESTATIC,
+        getInternalName(FrameShape.class),
+        "of",
+        makeSignature(FrameShape.class, String[].class));
+    builder.visitInsn(Opcodes.DUP);
+    builder.visitFieldInsn(Opcodes.PUTSTATIC, class_name, name, descriptor);
+    builder.visitLabel(ready);
+  }
+
   /** Create an anonymous field with the specified type. */
   public FieldValue makeField(String name, Class<?> type) {
     String n = name + "$" + (num_fields++);
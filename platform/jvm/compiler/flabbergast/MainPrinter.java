@@ -1,7 +1,11 @@
 package flabbergast;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.EnumSet;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -16,6 +20,9 @@ public class MainPrinter {
     options.addOption("o", "output", true, "Write output to file instead of standard output.");
     options.addOption("t", "trace-parsing", false, "Produce a trace of the parse process.");
     options.addOption("p", "no-precomp", false, "Do not use precompiled libraries");
+    options.addOption("j", "jobs", true, "Number of threads to use for evaluation.");
+    options.addOption(
+        "s", "lookup-stats", true, "Write statistics about lookups, as JSON, to a file.");
     options.addOption("h", "help", false, "Show this message and exit");
     CommandLineParser cl_parser = new GnuParser();
     CommandLine result;
@@ -51,6 +58,15 @@ public class MainPrinter {
     resource_finder.addDefaults();
     ErrorCollector collector = new ConsoleCollector();
     ConsoleTaskMaster task_master = new ConsoleTaskMaster();
+    if (result.hasOption('j')) {
+      try {
+        task_master.setParallelism(Integer.parseInt(result.getOptionValue('j')));
+      } catch (IllegalArgumentException e) {
+        System.err.println("The number of jobs must be a positive integer.");
+        System.exit(1);
+      }
+    }
+    task_master.setCollectingLookupStatistics(result.hasOption('s'));
     DynamicCompiler compiler = new DynamicCompiler(collector);
     compiler.setFinder(resource_finder);
     task_master.addUriHandler(compiler);
@@ -71,6 +87,13 @@ public class MainPrinter {
         filewriter.slot();
         task_master.run();
         task_master.reportCircularEvaluation();
+        if (result.hasOption('s')) {
+          try (Writer writer =
+              new OutputStreamWriter(
+                  new FileOutputStream(result.getOptionValue('s')), StandardCharsets.UTF_8)) {
+            task_master.getLookupStatistics().write(writer);
+          }
+        }
         System.exit(filewriter.getSuccess() ? 0 : 1);
       }
     } catch (Exception e) {
@@ -38,8 +38,7 @@ abstract class NameInfo {
     FieldValue lookup_result =
         generator.makeField("lookup_" + getName().replace('.', '$'), Object.class);
     MethodVisitor builder = generator.getBuilder();
-    builder.visitTypeInsn(Opcodes.NEW, getInternalName(Lookup.class));
-    builder.visitInsn(Opcodes.DUP);
+    generator.loadLookupSite();
     generator.loadTaskMaster();
     source_reference.load(builder);
     String[] name_parts = getName().split("\\.");
@@ -52,17 +51,18 @@ abstract class NameInfo {
       builder.visitInsn(Opcodes.AASTORE);
     }
     context.load(generator);
-    builder.visitMethodInsn(
-        Opcodes.INVOKESPECIAL,
-        getInternalName(Lookup.class),
-        "<init>",
-        org.objectweb.asm.Type.getConstructorDescriptor(Lookup.class.getConstructors()[0]));
     generator.generateConsumeResult(lookup_result);
     builder.visitMethodInsn(
         Opcodes.INVOKEVIRTUAL,
-        getInternalName(Lookup.class),
-        "listen",
-        Generator.makeSignature(null, ConsumeResult.class));
+        getInternalName(LookupSite.class),
+        "lookup",
+        Generator.makeSignature(
+            null,
+            TaskMaster.class,
+            SourceReference.class,
+            String[].class,
+            Context.class,
+            ConsumeResult.class));
     return lookup_result;
   }
 
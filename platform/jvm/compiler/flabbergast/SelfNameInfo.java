@@ -0,0 +1,48 @@
+package flabbergast;
+
+import static org.objectweb.asm.Type.getInternalName;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A free name that is an attribute of the frame being defined. This is not resolved at compile
+ * time: frames have no fixed slots, and frames from Let or fricassee expressions may be in front of
+ * the frame at run time. Instead, the generated code calls {@link LookupSite#lookupSelf}, a runtime
+ * shortcut that reads the value from the frame if nothing in front of it has the name and the
+ * value is already computed, and otherwise performs a full lookup.
+ */
+class SelfNameInfo extends OpenNameInfo {
+  public SelfNameInfo(Environment environment, String name) {
+    super(environment, name);
+  }
+
+  @Override
+  protected LoadableValue generateLookupField(
+      Generator generator, LoadableValue source_reference, LoadableValue context) throws Exception {
+    if (!(generator instanceof DefinitionGenerator)) {
+      return super.generateLookupField(generator, source_reference, context);
+    }
+    FieldValue lookup_result = generator.makeField("lookup_" + getName(), Object.class);
+    MethodVisitor builder = generator.getBuilder();
+    generator.loadTaskMaster();
+    source_reference.load(builder);
+    builder.visitLdcInsn(getName());
+    context.load(generator);
+    ((DefinitionGenerator) generator).getInitialSelfFrame().load(builder);
+    generator.generateConsumeResult(lookup_result);
+    builder.visitMethodInsn(
+        Opcodes.INVOKESTATIC,
+        getInternalName(LookupSite.class),
+        "lookupSelf",
+        Generator.makeSignature(
+            null,
+            TaskMaster.class,
+            SourceReference.class,
+            String.class,
+            Context.class,
+            Frame.class,
+            ConsumeResult.class));
+    return lookup_result;
+  }
+}
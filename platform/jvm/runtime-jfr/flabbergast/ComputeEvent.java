@@ -0,0 +1,27 @@
+package flabbergast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A step of a computation, recorded for Java Flight Recorder. */
+@Name("flabbergast.Compute")
+@Label("Compute")
+@Category("Flabbergast")
+@StackTrace(false)
+@Description("A step of a computation performed by the task master")
+class ComputeEvent extends Event {
+  @Label("Completed")
+  @Description("Whether the computation produced its value in this step")
+  boolean completed;
+
+  @Label("Computation")
+  @Description("The class implementing the computation")
+  String computation;
+
+  @Label("Location")
+  String location;
+}
@@ -0,0 +1,24 @@
+package flabbergast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Resolution of an external URI, from the first request until its value is available, recorded
+ * for Java Flight Recorder.
+ */
+@Name("flabbergast.External")
+@Label("External")
+@Category("Flabbergast")
+@Description("Resolution of an external URI")
+class ExternalEvent extends Event {
+  @Label("Handler")
+  @Description("The handler that resolved the URI")
+  String handler;
+
+  @Label("URI")
+  String uri;
+}
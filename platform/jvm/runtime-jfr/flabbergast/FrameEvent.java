@@ -0,0 +1,19 @@
+package flabbergast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** The creation of a mutable frame, recorded for Java Flight Recorder. */
+@Name("flabbergast.Frame")
+@Label("Frame")
+@Category("Flabbergast")
+@StackTrace(false)
+@Description("Creation of a frame during evaluation")
+class FrameEvent extends Event {
+  @Label("Location")
+  String location;
+}
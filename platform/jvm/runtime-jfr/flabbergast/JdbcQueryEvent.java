@@ -0,0 +1,23 @@
+package flabbergast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** The execution of an SQL query, recorded for Java Flight Recorder. */
+@Name("flabbergast.JdbcQuery")
+@Label("SQL Query")
+@Category("Flabbergast")
+@Description("Execution of an SQL query and conversion of its rows")
+class JdbcQueryEvent extends Event {
+  @Label("Location")
+  String location;
+
+  @Label("Query")
+  String query;
+
+  @Label("Rows")
+  long rows;
+}
@@ -0,0 +1,113 @@
+package flabbergast;
+
+import jdk.jfr.EventType;
+
+/**
+ * Records evaluation using flight recorder events.
+ *
+ * <p>Each event type is checked before an event is allocated, so when no recording is active, the
+ * cost is a flag check per step or frame.
+ */
+final class JfrFlightRecorder extends FlightRecorder {
+  private static final EventType COMPUTE = EventType.getEventType(ComputeEvent.class);
+  private static final EventType EXTERNAL = EventType.getEventType(ExternalEvent.class);
+  private static final EventType FRAME = EventType.getEventType(FrameEvent.class);
+  private static final EventType JDBC_QUERY = EventType.getEventType(JdbcQueryEvent.class);
+  private static final EventType LOOKUP = EventType.getEventType(LookupEvent.class);
+
+  @Override
+  void compute(Future computation) {
+    if (!COMPUTE.isEnabled()) {
+      computation.run();
+      return;
+    }
+    ComputeEvent event = new ComputeEvent();
+    event.begin();
+    computation.run();
+    event.end();
+    if (event.shouldCommit()) {
+      event.computation = computation.getClass().getName();
+      event.completed = computation.isCompleted();
+      event.location = SourceReference.describe(computation.getSourceReference());
+      event.commit();
+    }
+  }
+
+  @Override
+  void createFrame(Frame frame) {
+    if (!FRAME.isEnabled()) {
+      return;
+    }
+    FrameEvent event = new FrameEvent();
+    if (event.shouldCommit()) {
+      event.location = SourceReference.describe(frame.getSourceReference());
+      event.commit();
+    }
+  }
+
+  @Override
+  void finishExternal(Object started, String uri, String handler) {
+    ExternalEvent event = (ExternalEvent) started;
+    event.end();
+    if (event.shouldCommit()) {
+      event.uri = uri;
+      event.handler = handler;
+      event.commit();
+    }
+  }
+
+  @Override
+  void finishJdbcQuery(Object started, String query, long rows, SourceReference reference) {
+    JdbcQueryEvent event = (JdbcQueryEvent) started;
+    event.end();
+    if (event.shouldCommit()) {
+      event.query = query;
+      event.rows = rows;
+      event.location = SourceReference.describe(reference);
+      event.commit();
+    }
+  }
+
+  @Override
+  void finishLookup(Object started, Lookup lookup, int frames_scanned) {
+    LookupEvent event = (LookupEvent) started;
+    event.end();
+    if (event.shouldCommit()) {
+      event.name = lookup.getName();
+      event.frames = lookup.getFrameCount();
+      event.frames_scanned = frames_scanned;
+      event.location = SourceReference.describe(lookup.getSourceReference());
+      event.commit();
+    }
+  }
+
+  @Override
+  Object startExternal() {
+    if (!EXTERNAL.isEnabled()) {
+      return null;
+    }
+    ExternalEvent event = new ExternalEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  Object startJdbcQuery() {
+    if (!JDBC_QUERY.isEnabled()) {
+      return null;
+    }
+    JdbcQueryEvent event = new JdbcQueryEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  Object startLookup() {
+    if (!LOOKUP.isEnabled()) {
+      return null;
+    }
+    LookupEvent event = new LookupEvent();
+    event.begin();
+    return event;
+  }
+}
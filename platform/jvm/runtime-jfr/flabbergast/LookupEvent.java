@@ -0,0 +1,33 @@
+package flabbergast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A lookup, from when it starts until it finds its value, recorded for Java Flight Recorder. The
+ * duration includes the time spent waiting for other computations.
+ */
+@Name("flabbergast.Lookup")
+@Label("Lookup")
+@Category("Flabbergast")
+@StackTrace(false)
+@Description("Resolution of a lookup, including time blocked")
+class LookupEvent extends Event {
+  @Label("Frames")
+  @Description("The number of frames in the lookup's context")
+  int frames;
+
+  @Label("Frames Scanned")
+  @Description("The number of frames examined before the value was found")
+  int frames_scanned;
+
+  @Label("Location")
+  String location;
+
+  @Label("Name")
+  String name;
+}
@@ -17,8 +17,20 @@ public abstract class BaseFunctionInterop<R> extends InterlockedLookup {
 
   protected abstract R computeResult() throws Exception;
 
+  /**
+   * Whether {@link #computeResult()} blocks or is expensive enough that it should be run off the
+   * scheduler.
+   */
+  protected boolean isBlocking() {
+    return false;
+  }
+
   @Override
   protected final void resolve() {
-    result = correctOutput(this::computeResult);
+    if (isBlocking()) {
+      resolveBlocking(() -> correctOutput(this::computeResult));
+    } else {
+      result = correctOutput(this::computeResult);
+    }
   }
 }
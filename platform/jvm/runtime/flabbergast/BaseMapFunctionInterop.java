@@ -27,13 +27,29 @@ public abstract class BaseMapFunctionInterop<T, R> extends InterlockedLookup {
 
   protected abstract R computeResult(T input) throws Exception;
 
-  @Override
-  protected final void resolve() {
+  private Frame computeAll() {
     MutableFrame output_frame = new MutableFrame(task_master, source_reference, context, self);
     for (Entry<String, T> entry : input.entrySet()) {
       output_frame.set(entry.getKey(), correctOutput(() -> computeResult(entry.getValue())));
     }
-    result = output_frame;
+    return output_frame;
+  }
+
+  /**
+   * Whether {@link #computeResult(Object)} blocks or is expensive enough that it should be run off
+   * the scheduler.
+   */
+  protected boolean isBlocking() {
+    return false;
+  }
+
+  @Override
+  protected final void resolve() {
+    if (isBlocking()) {
+      resolveBlocking(this::computeAll);
+    } else {
+      result = computeAll();
+    }
   }
 
   @Override
@@ -8,6 +8,10 @@ public class BlackholeFuture extends Future {
     super(null);
   }
 
+  /** Since this never completes, there is no need to keep the listener. */
+  @Override
+  public void listen(ConsumeResult new_consumer, boolean needs_slot) {}
+
   @Override
   protected void run() {}
 }
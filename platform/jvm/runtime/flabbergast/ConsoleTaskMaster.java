@@ -5,6 +5,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.fusesource.jansi.Ansi;
@@ -16,7 +17,7 @@ public class ConsoleTaskMaster extends TaskMaster {
     return String.format("%1$-" + length + "s", str);
   }
 
-  public void reportCircularEvaluation() throws IOException {
+  public synchronized void reportCircularEvaluation() throws IOException {
     boolean exit = !hasInflightLookups() || dirty;
     dirty = false;
     if (exit) {
@@ -43,7 +44,35 @@ public class ConsoleTaskMaster extends TaskMaster {
   }
 
   @Override
-  public void reportExternalError(String uri, LibraryFailure reason) {
+  protected synchronized void reportDeadlock(List<Future> cycle) {
+    dirty = true;
+    try {
+      PrintWriter output = new PrintWriter(System.err);
+      Set<SourceReference> seen = new HashSet<SourceReference>();
+      output.print(Ansi.ansi().a(Ansi.Attribute.RESET).fg(Ansi.Color.RED).toString());
+      output.println("Circular evaluation detected.");
+      output.print(Ansi.ansi().a(Ansi.Attribute.RESET).toString());
+      for (Future computation : cycle) {
+        if (!(computation instanceof Lookup)) {
+          continue;
+        }
+        Lookup lookup = (Lookup) computation;
+        output.print(Ansi.ansi().a(Ansi.Attribute.RESET).fg(Ansi.Color.BLUE).toString());
+        output.printf("Lookup for “%s” blocked. Lookup initiated at:\n", lookup.getName());
+        output.print(Ansi.ansi().a(Ansi.Attribute.RESET).toString());
+        lookup.getSourceReference().write(output, "  ", seen);
+        output.print(Ansi.ansi().a(Ansi.Attribute.RESET).fg(Ansi.Color.YELLOW).toString());
+        output.printf(" is waiting for “%s” in frame defined at:\n", lookup.getLastName());
+        output.print(Ansi.ansi().a(Ansi.Attribute.RESET).toString());
+        lookup.getLastFrame().getSourceReference().write(output, "  ", seen);
+      }
+      output.flush();
+    } catch (IOException e) {
+    }
+  }
+
+  @Override
+  public synchronized void reportExternalError(String uri, LibraryFailure reason) {
     dirty = true;
     System.err.print(Ansi.ansi().a(Ansi.Attribute.RESET).fg(Ansi.Color.RED).toString());
     switch (reason) {
@@ -63,7 +92,7 @@ public class ConsoleTaskMaster extends TaskMaster {
   }
 
   @Override
-  public void reportLookupError(Lookup lookup, Class<?> fail_type) {
+  public synchronized void reportLookupError(Lookup lookup, Class<?> fail_type) {
     dirty = true;
     try {
       PrintWriter output = new PrintWriter(System.err);
@@ -126,7 +155,7 @@ public class ConsoleTaskMaster extends TaskMaster {
   }
 
   @Override
-  public void reportOtherError(SourceReference reference, String message) {
+  public synchronized void reportOtherError(SourceReference reference, String message) {
     dirty = true;
     System.err.print(Ansi.ansi().a(Ansi.Attribute.RESET).fg(Ansi.Color.BLUE).toString());
     System.err.println(message);
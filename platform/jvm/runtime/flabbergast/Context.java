@@ -1,11 +1,211 @@
 package flabbergast;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
-/** The collection of frames in which lookup should be performed. */
+/**
+ * The collection of frames in which lookup should be performed.
+ *
+ * <p>Contexts are persistent: prepending a frame or appending another context creates a node that
+ * shares the existing contexts rather than copying them. A frame appears in a context at most once;
+ * when combining contexts would duplicate a frame, the node records which frames to skip.
+ */
 public class Context implements Iterable<Frame> {
+  private static final class ContextIterator implements Iterator<Frame> {
+    private Frame next;
+    private Context node;
+    private Pending pending;
+    private SkipChain skip;
+
+    ContextIterator(Context context) {
+      node = context;
+      advance();
+    }
+
+    private void advance() {
+      while (true) {
+        if (node == null) {
+          if (pending == null) {
+            next = null;
+            return;
+          }
+          node = pending.context;
+          skip = pending.skip;
+          pending = pending.next;
+          continue;
+        }
+        Context current = node;
+        SkipChain head_skip = skip;
+        if (current.second != null) {
+          pending =
+              new Pending(current.second, SkipChain.extend(skip, current.second_skip), pending, 0);
+        }
+        node = current.first;
+        skip = SkipChain.extend(skip, current.first_skip);
+        if (current.head != null && (head_skip == null || !head_skip.contains(current.head))) {
+          next = current.head;
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Frame next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Frame result = next;
+      advance();
+      return result;
+    }
+  }
+
+  /** A persistent set of frames, by identity, that shares structure between versions. */
+  private static final class FrameSet {
+    static final FrameSet EMPTY = new FrameSet(0, new Object[0]);
+
+    private final int bitmap;
+
+    /**
+     * The frames and subsets for each bit set in the bitmap. Past the last level, the bitmap is
+     * unused and this holds the frames whose identity hashes collide.
+     */
+    private final Object[] children;
+
+    private FrameSet(int bitmap, Object[] children) {
+      this.bitmap = bitmap;
+      this.children = children;
+    }
+
+    FrameSet add(Frame frame) {
+      return add(frame, System.identityHashCode(frame), 0);
+    }
+
+    private FrameSet add(Frame frame, int hash, int shift) {
+      if (shift >= 32) {
+        for (Object child : children) {
+          if (child == frame) {
+            return this;
+          }
+        }
+        Object[] bucket = Arrays.copyOf(children, children.length + 1);
+        bucket[children.length] = frame;
+        return new FrameSet(0, bucket);
+      }
+      int bit = 1 << ((hash >>> shift) & 31);
+      int index = Integer.bitCount(bitmap & (bit - 1));
+      if ((bitmap & bit) == 0) {
+        Object[] inserted = new Object[children.length + 1];
+        System.arraycopy(children, 0, inserted, 0, index);
+        inserted[index] = frame;
+        System.arraycopy(children, index, inserted, index + 1, children.length - index);
+        return new FrameSet(bitmap | bit, inserted);
+      }
+      Object child = children[index];
+      if (child == frame) {
+        return this;
+      }
+      FrameSet replacement;
+      if (child instanceof FrameSet) {
+        replacement = ((FrameSet) child).add(frame, hash, shift + 5);
+        if (replacement == child) {
+          return this;
+        }
+      } else {
+        Frame existing = (Frame) child;
+        replacement =
+            EMPTY
+                .add(existing, System.identityHashCode(existing), shift + 5)
+                .add(frame, hash, shift + 5);
+      }
+      Object[] replaced = children.clone();
+      replaced[index] = replacement;
+      return new FrameSet(bitmap, replaced);
+    }
+
+    boolean contains(Frame frame) {
+      int hash = System.identityHashCode(frame);
+      FrameSet current = this;
+      for (int shift = 0; shift < 32; shift += 5) {
+        int bit = 1 << ((hash >>> shift) & 31);
+        if ((current.bitmap & bit) == 0) {
+          return false;
+        }
+        Object child = current.children[Integer.bitCount(current.bitmap & (bit - 1))];
+        if (!(child instanceof FrameSet)) {
+          return child == frame;
+        }
+        current = (FrameSet) child;
+      }
+      for (Object child : current.children) {
+        if (child == frame) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** A context still to be iterated, once the current one is done. */
+  private static final class Pending {
+    final Context context;
+
+    /** The number of parts above this context, when tracking them. */
+    final int depth;
+
+    final Pending next;
+    final SkipChain skip;
+
+    Pending(Context context, SkipChain skip, Pending next, int depth) {
+      this.context = context;
+      this.skip = skip;
+      this.next = next;
+      this.depth = depth;
+    }
+  }
+
+  /** The sets of frames to skip while iterating part of a context. */
+  private static final class SkipChain {
+    static SkipChain extend(SkipChain chain, Set<Frame> skip) {
+      return skip == null ? chain : new SkipChain(skip, chain);
+    }
+
+    final SkipChain next;
+    final Set<Frame> skip;
+
+    SkipChain(Set<Frame> skip, SkipChain next) {
+      this.skip = skip;
+      this.next = next;
+    }
+
+    boolean contains(Frame frame) {
+      for (SkipChain chain = this; chain != null; chain = chain.next) {
+        if (chain.skip.contains(frame)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** The most parts of a context kept by {@link #partsLeadingTo}. */
+  private static final int PARTS_LIMIT = 16;
+
+  /** The longest context checked for a frame by scanning rather than indexing. */
+  private static final int SCAN_LIMIT = 8;
+
   /**
    * Conjoin two contexts, placing all the frames of the provided context after all the frames in
    * the original context.
@@ -17,50 +217,277 @@ public class Context implements Iterable<Frame> {
     if (new_tail == null || original == new_tail) {
       return original;
     }
-    int filter = 0;
-    List<Frame> list = new ArrayList<Frame>(original.getLength() + new_tail.getLength());
-    for (Frame f : original.frames) {
-      list.add(f);
-      filter |= f.hashCode();
-    }
-    for (Frame frame : new_tail.frames) {
-      int hash = frame.hashCode();
-      if ((hash & filter) != hash || !list.contains(frame)) {
-        list.add(frame);
-        filter |= hash;
+    Set<Frame> skip = null;
+    for (Frame frame : new_tail) {
+      if (original.contains(frame)) {
+        if (skip == null) {
+          skip = Collections.newSetFromMap(new IdentityHashMap<Frame, Boolean>());
+        }
+        skip.add(frame);
       }
     }
-    return new Context(list);
+    if (skip != null && skip.size() == new_tail.length) {
+      return original;
+    }
+    return new Context(
+        null,
+        original,
+        null,
+        new_tail,
+        skip,
+        original.length + new_tail.length - (skip == null ? 0 : skip.size()));
   }
 
   public static Context prepend(Frame head, Context tail) {
     if (head == null) {
       throw new IllegalArgumentException("Cannot prepend a null frame to a context.");
     }
-    List<Frame> list = new ArrayList<Frame>(tail == null ? 1 : (tail.getLength() + 1));
-    list.add(head);
-    if (tail != null) {
-      for (Frame frame : tail.frames) {
-        if (head != frame) {
-          list.add(frame);
+    if (tail == null) {
+      return new Context(head, null, null, null, null, 1);
+    }
+    if (tail.contains(head)) {
+      return new Context(head, tail, Collections.singleton(head), null, null, tail.length);
+    }
+    return new Context(head, tail, null, null, null, tail.length + 1);
+  }
+
+  /**
+   * Prepend a frame that cannot already be in the context, since it is still being constructed.
+   */
+  static Context prependNew(Frame head, Context tail) {
+    return new Context(head, tail, null, null, null, tail == null ? 1 : tail.length + 1);
+  }
+
+  /** The frames following the head, if any. */
+  private final Context first;
+
+  /** Frames in {@link #first} to skip, or null if none. */
+  private final Set<Frame> first_skip;
+
+  /** The first frame, or null if the context starts with {@link #first}. */
+  private final Frame head;
+
+  /** The set of all frames in the context, built when first needed. */
+  private volatile FrameSet index;
+
+  private final int length;
+
+  /**
+   * The lookups in progress in this context, by name, or null if there are none. A single name is
+   * its own key and longer names are keyed by a list of their parts. Lookups are removed once they
+   * finish or fail, so the table only lives as long as they do.
+   */
+  private HashMap<Object, Lookup> lookups;
+
+  /** The frames following {@link #first}, or null if none. */
+  private final Context second;
+
+  /** Frames in {@link #second} to skip, or null if none. */
+  private final Set<Frame> second_skip;
+
+  private Context(
+      Frame head,
+      Context first,
+      Set<Frame> first_skip,
+      Context second,
+      Set<Frame> second_skip,
+      int length) {
+    this.head = head;
+    this.first = first;
+    this.first_skip = first_skip;
+    this.second = second;
+    this.second_skip = second_skip;
+    this.length = length;
+  }
+
+  /**
+   * Check if a frame is in this context. Short contexts are scanned, since building an index for
+   * them costs more than it saves.
+   */
+  boolean contains(Frame frame) {
+    if (length <= SCAN_LIMIT && index == null) {
+      for (Frame candidate : this) {
+        if (candidate == frame) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return getIndex().contains(frame);
+  }
+
+  /**
+   * Find the first frame in this context that has a name, looking at no more than a limited number
+   * of frames. If one of the parts leading to a frame, as found by {@link #partsLeadingTo}, is
+   * reached first, the search stops there with that frame: the frames before it in the part did not
+   * have the name then and frames never gain attributes, so it would be found next.
+   *
+   * @return the frame, or null if none was found within the limit
+   */
+  Frame findFirst(String name, int limit, Context[] parts, Frame found) {
+    Context node = this;
+    Pending pending = null;
+    SkipChain skip = null;
+    int seen = 0;
+    while (true) {
+      if (node == null) {
+        if (pending == null) {
+          return null;
+        }
+        node = pending.context;
+        skip = pending.skip;
+        pending = pending.next;
+        continue;
+      }
+      Context current = node;
+      for (Context part : parts) {
+        if (part == current) {
+          return found;
+        }
+      }
+      SkipChain head_skip = skip;
+      if (current.second != null) {
+        pending =
+            new Pending(current.second, SkipChain.extend(skip, current.second_skip), pending, 0);
+      }
+      node = current.first;
+      skip = SkipChain.extend(skip, current.first_skip);
+      if (current.head != null && (head_skip == null || !head_skip.contains(current.head))) {
+        if (current.head.get(name) != null) {
+          return current.head;
+        }
+        if (++seen >= limit) {
+          return null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the set of frames in this context. Each set is built from the set of the context it
+   * extends, so the sets share structure and are only built once.
+   */
+  private FrameSet getIndex() {
+    FrameSet result = index;
+    if (result != null) {
+      return result;
+    }
+    // Walk down iteratively, since contexts can be very deep.
+    ArrayDeque<Context> unindexed = new ArrayDeque<Context>();
+    Context current = this;
+    while (current != null && current.index == null) {
+      unindexed.push(current);
+      current = current.first;
+    }
+    result = current == null ? FrameSet.EMPTY : current.index;
+    while (!unindexed.isEmpty()) {
+      Context node = unindexed.pop();
+      if (node.head != null) {
+        result = result.add(node.head);
+      }
+      if (node.second != null) {
+        for (Frame frame : node.second) {
+          result = result.add(frame);
         }
       }
+      node.index = result;
     }
-    return new Context(list);
+    return result;
   }
 
-  private List<Frame> frames;
+  /** Stop sharing a lookup, since it has finished or failed. */
+  synchronized void forgetLookup(Object key, Lookup lookup) {
+    if (lookups != null && lookups.remove(key, lookup) && lookups.isEmpty()) {
+      lookups = null;
+    }
+  }
 
-  private Context(List<Frame> frames) {
-    this.frames = frames;
+  /**
+   * Look up names in this context. When evaluating in parallel, the lookup is shared with any
+   * identical one in progress. Frames do not change once their attributes are being computed, so an
+   * identical lookup must produce the same value. If a shared lookup fails, the error is reported
+   * for each place that shared it. When evaluating serially, identical lookups are rarely in
+   * progress at once, so each is done on its own.
+   */
+  Future lookup(
+      TaskMaster task_master, SourceReference source_reference, String[] names, LookupSite site) {
+    if (task_master.getParallelism() < 2) {
+      return new Lookup(task_master, source_reference, names, this, site, null);
+    }
+    Object key = names.length == 1 ? names[0] : Arrays.asList(names);
+    Lookup lookup;
+    boolean shared;
+    synchronized (this) {
+      lookup = lookups == null ? null : lookups.get(key);
+      shared = lookup != null && lookup.share(source_reference, site);
+      if (!shared) {
+        lookup = new Lookup(task_master, source_reference, names, this, site, key);
+        if (lookups == null) {
+          lookups = new HashMap<Object, Lookup>();
+        }
+        lookups.put(key, lookup);
+      }
+    }
+    if (shared) {
+      LookupStatistics statistics = task_master.getLookupStatistics();
+      if (statistics != null) {
+        statistics.recordShortcut(
+            source_reference, String.join(".", names), LookupStatistics.Shortcut.SHARED);
+      }
+    }
+    return lookup;
+  }
+
+  /**
+   * Find the parts of this context that contain a frame and every frame before it in a part, from
+   * the closest to the frame outwards, keeping no more than {@link #PARTS_LIMIT}. Parts are shared
+   * between contexts, so another context containing one of them reaches the frame the same way.
+   */
+  Context[] partsLeadingTo(Frame frame) {
+    ArrayList<Context> path = new ArrayList<Context>();
+    Context node = this;
+    Pending pending = null;
+    SkipChain skip = null;
+    while (true) {
+      if (node == null) {
+        if (pending == null) {
+          return new Context[0];
+        }
+        path.subList(pending.depth, path.size()).clear();
+        node = pending.context;
+        skip = pending.skip;
+        pending = pending.next;
+        continue;
+      }
+      Context current = node;
+      path.add(current);
+      SkipChain head_skip = skip;
+      if (current.second != null) {
+        pending =
+            new Pending(
+                current.second,
+                SkipChain.extend(skip, current.second_skip),
+                pending,
+                path.size());
+      }
+      node = current.first;
+      skip = SkipChain.extend(skip, current.first_skip);
+      if (current.head == frame && (head_skip == null || !head_skip.contains(frame))) {
+        Context[] parts = new Context[Math.min(path.size(), PARTS_LIMIT)];
+        for (int it = 0; it < parts.length; it++) {
+          parts[it] = path.get(path.size() - 1 - it);
+        }
+        return parts;
+      }
+    }
   }
 
   public int getLength() {
-    return frames.size();
+    return length;
   }
 
   @Override
   public Iterator<Frame> iterator() {
-    return frames.iterator();
+    return new ContextIterator(this);
   }
 }
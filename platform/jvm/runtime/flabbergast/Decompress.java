@@ -14,6 +14,11 @@ public class Decompress extends BaseMapFunctionInterop<byte[], byte[]> {
     super(byte[].class, byte[].class, task_master, source_ref, context, self, container);
   }
 
+  @Override
+  protected boolean isBlocking() {
+    return true;
+  }
+
   @Override
   protected byte[] computeResult(byte[] input) throws Exception {
     try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(input));
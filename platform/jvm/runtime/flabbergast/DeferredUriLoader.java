@@ -0,0 +1,14 @@
+package flabbergast;
+
+import flabbergast.TaskMaster.LibraryFailure;
+
+/**
+ * A loader that can quickly decide if it provides a URI, but must do blocking work to load it.
+ *
+ * <p>The loading is performed off the scheduler, so {@link #resolveUri(String, Ptr)} may be called
+ * from multiple threads at once.
+ */
+public interface DeferredUriLoader extends UriLoader {
+  /** Check if the URI can be loaded, setting the reason if it cannot. */
+  boolean canResolveUri(String uri, Ptr<LibraryFailure> reason);
+}
@@ -5,7 +5,7 @@ import java.util.TreeMap;
 
 public class FixedFrame extends Frame {
 
-  private TreeMap<String, Object> attributes = new TreeMap<String, Object>();
+  private TreeMap<String, Object> attributes = new TreeMap<String, Object>(Symbols.ORDER);
 
   public FixedFrame(String id, SourceReference source_ref) {
     super(id, source_ref, null, null);
@@ -0,0 +1,48 @@
+package flabbergast;
+
+/**
+ * Records evaluation for Java Flight Recorder.
+ *
+ * <p>The events extend {@code jdk.jfr.Event}, which older JVMs and compilers targeting them do not
+ * have, so they are kept in a separate source tree, runtime-jfr, which is only built when the
+ * compiler provides flight recorder. The recorder is then loaded by name, and if it is missing,
+ * {@link #INSTANCE} is null and nothing is recorded.
+ */
+abstract class FlightRecorder {
+  /** The recorder, or null if flight recorder events are not available. */
+  static final FlightRecorder INSTANCE = load();
+
+  private static FlightRecorder load() {
+    try {
+      return (FlightRecorder)
+          Class.forName("flabbergast.JfrFlightRecorder").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /** Perform a step of a computation, recording it if enabled. */
+  abstract void compute(Future computation);
+
+  /** Record the creation of a frame, if enabled. */
+  abstract void createFrame(Frame frame);
+
+  /** Finish the event started for a URI. */
+  abstract void finishExternal(Object started, String uri, String handler);
+
+  /** Finish the event started for a query. */
+  abstract void finishJdbcQuery(
+      Object started, String query, long rows, SourceReference reference);
+
+  /** Finish the event started for a lookup. */
+  abstract void finishLookup(Object started, Lookup lookup, int frames_scanned);
+
+  /** Start an event for resolving a URI, returning null if not recording. */
+  abstract Object startExternal();
+
+  /** Start an event for a query, returning null if not recording. */
+  abstract Object startJdbcQuery();
+
+  /** Start an event for a lookup, returning null if not recording. */
+  abstract Object startLookup();
+}
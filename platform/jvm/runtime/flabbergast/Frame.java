@@ -7,6 +7,10 @@ import java.util.HashSet;
 /** A Frame in the Flabbergast language. */
 public abstract class Frame implements Iterable<String> {
 
+  /**
+   * Create a list of the integers from start to end, inclusive. If there are too many to count, an
+   * error is reported and null is returned.
+   */
   public static Frame through(
       TaskMaster task_master,
       SourceReference source_ref,
@@ -14,40 +18,86 @@ public abstract class Frame implements Iterable<String> {
       long end,
       Context context,
       Frame container) {
-    MutableFrame result =
-        new MutableFrame(
-            task_master, source_ref,
-            context, container);
-    if (end < start) {
-      return result;
-    }
-    for (long it = 0; it <= (end - start); it++) {
-      result.set(SupportFunctions.ordinalNameStr(it + 1), start + it);
+    long length;
+    try {
+      length = end < start ? 0 : Math.addExact(Math.subtractExact(end, start), 1);
+    } catch (ArithmeticException e) {
+      task_master.reportOtherError(
+          source_ref, String.format("The range %d Through %d has too many items.", start, end));
+      return null;
     }
-    return result;
+    return new RangeFrame(task_master, source_ref, start, length, context, container);
   }
 
   private final Frame container;
   private final Context context;
-  private final Stringish id;
+
+  /**
+   * The frame's identifier, built by {@link #getId()} on first use, since most frames are never
+   * asked for it.
+   */
+  private volatile Stringish id;
+
+  /**
+   * The lineage the identifier is built from, when running in parallel, or null if it is built from
+   * {@link #id_name} or {@link #id_number}.
+   */
+  private final Lineage id_lineage;
+
+  /** The name the identifier is built from, if it was given one. */
+  private final String id_name;
+
+  /** The position of this frame in {@link #id_lineage}, or its ordinal if it has no lineage. */
+  private final long id_number;
+
   private final SourceReference source_reference;
 
+  private Frame(
+      String id_name,
+      Lineage id_lineage,
+      long id_number,
+      Stringish id,
+      SourceReference source_ref,
+      Context context,
+      Frame container) {
+    this.source_reference = source_ref;
+    this.context = Context.prependNew(this, context);
+    this.container = container == null ? this : container;
+    this.id_name = id_name;
+    this.id_lineage = id_lineage;
+    this.id_number = id_lineage == null ? id_number : id_lineage.next();
+    this.id = id;
+  }
+
   public Frame(String id, SourceReference source_ref, Context context, Frame container) {
-    this(new SimpleStringish(id), source_ref, context, container);
+    this(id, null, 0, null, source_ref, context, container);
   }
 
   public Frame(Stringish id, SourceReference source_ref, Context context, Frame container) {
-    this.source_reference = source_ref;
-    this.context = Context.prepend(this, context);
-    this.container = container == null ? this : container;
-    this.id = id;
+    this(null, null, 0, id, source_ref, context, container);
   }
 
+  /**
+   * Create a frame counted against the task master's frame limit. It is identified by its ordinal
+   * or, when running in parallel, by its place in the lineage of the computation creating it.
+   */
   public Frame(
       TaskMaster task_master, SourceReference source_ref, Context context, Frame container) {
-    this(SupportFunctions.ordinalName(task_master.nextId()), source_ref, context, container);
+    this(
+        null,
+        task_master.tracksLineage() ? task_master.currentLineage() : null,
+        task_master.nextId(),
+        null,
+        source_ref,
+        context,
+        container);
   }
 
+  /**
+   * The number of attributes in the frame. Only a range can have more than {@link
+   * Integer#MAX_VALUE}, since the attributes of other frames are held in memory; for such a range,
+   * this is {@link Integer#MAX_VALUE}.
+   */
   public abstract int count();
 
   /**
@@ -67,7 +117,19 @@ public abstract class Frame implements Iterable<String> {
   }
 
   public Stringish getId() {
-    return id;
+    Stringish current = id;
+    if (current == null) {
+      // Racing threads build equal identifiers, so either may win.
+      current =
+          new SimpleStringish(
+              id_name != null
+                  ? id_name
+                  : id_lineage == null
+                      ? SupportFunctions.ordinalNameStr(id_number)
+                      : id_lineage.name(id_number));
+      id = current;
+    }
+    return current;
   }
 
   /**
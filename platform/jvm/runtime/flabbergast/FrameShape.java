@@ -0,0 +1,115 @@
+package flabbergast;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * The attribute names a frame is known to have when it is created, each assigned a slot.
+ *
+ * <p>The compiler knows the names of the attributes in most frame literals, so frames created from
+ * them can keep their values in an array indexed by slot, rather than a map. Shapes with the same
+ * names are shared, and the names are {@link Symbols interned}, so most names can be matched by
+ * identity. Shapes are only shared while they are in use, so shapes for templates that are no
+ * longer reachable can be collected.
+ */
+public final class FrameShape {
+  /** The names of a shape, as the key for sharing it, which lives as long as the shape does. */
+  private static final class Names {
+    final String[] names;
+
+    Names(String[] names) {
+      this.names = names;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Names && Arrays.equals(names, ((Names) other).names);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(names);
+    }
+  }
+
+  public static final FrameShape EMPTY = new FrameShape(new Names(new String[0]));
+
+  /** The shapes in use, by their names. Both the keys and the shapes are held weakly. */
+  private static final WeakHashMap<Names, WeakReference<FrameShape>> SHAPES =
+      new WeakHashMap<Names, WeakReference<FrameShape>>();
+
+  /** Get the shape for a set of names, in any order, sharing it with any identical shape. */
+  public static FrameShape of(String... names) {
+    String[] sorted = names.clone();
+    Arrays.sort(sorted);
+    int length = 0;
+    for (int it = 0; it < sorted.length; it++) {
+      if (length == 0 || !sorted[length - 1].equals(sorted[it])) {
+        sorted[length++] = Symbols.intern(sorted[it]);
+      }
+    }
+    if (length == 0) {
+      return EMPTY;
+    }
+    Names key = new Names(Arrays.copyOf(sorted, length));
+    synchronized (SHAPES) {
+      WeakReference<FrameShape> existing = SHAPES.get(key);
+      FrameShape shape = existing == null ? null : existing.get();
+      if (shape == null) {
+        shape = new FrameShape(key);
+        // A collected shape's entry may linger with its old key, which would not be kept alive by
+        // the new shape, so it is replaced, not updated.
+        SHAPES.remove(key);
+        SHAPES.put(key, new WeakReference<FrameShape>(shape));
+      }
+      return shape;
+    }
+  }
+
+  /** The key under which this shape is shared, which must be kept alive by the shape. */
+  private final Names key;
+
+  private final String[] names;
+
+  /** An open-addressed hash table of slot numbers, offset by one so that zero is empty. */
+  private final int[] table;
+
+  private FrameShape(Names key) {
+    this.key = key;
+    names = key.names;
+    int capacity = Integer.highestOneBit(Math.max(1, names.length) * 2) * 2;
+    table = new int[capacity];
+    for (int slot = 0; slot < names.length; slot++) {
+      int bucket = names[slot].hashCode() & (capacity - 1);
+      while (table[bucket] != 0) {
+        bucket = (bucket + 1) & (capacity - 1);
+      }
+      table[bucket] = slot + 1;
+    }
+  }
+
+  /** Find the slot for a name, or -1 if it is not in this shape. */
+  public int indexOf(String name) {
+    int mask = table.length - 1;
+    for (int bucket = name.hashCode() & mask; ; bucket = (bucket + 1) & mask) {
+      int slot = table[bucket] - 1;
+      if (slot < 0) {
+        return -1;
+      }
+      String candidate = names[slot];
+      if (candidate == name || candidate.equals(name)) {
+        return slot;
+      }
+    }
+  }
+
+  /** The name in a slot. Slots are in the same order as the names. */
+  public String getName(int slot) {
+    return names[slot];
+  }
+
+  public int size() {
+    return names.length;
+  }
+}
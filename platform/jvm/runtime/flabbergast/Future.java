@@ -1,8 +1,8 @@
 package flabbergast;
 
-import java.util.ArrayList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /** A generic computation to be worked on by the TaskMaster. */
 public abstract class Future {
@@ -50,30 +50,111 @@ public abstract class Future {
     };
   }
 
-  /** The delegate(s) to be invoked when the computation is complete. */
-  private ArrayList<ConsumeResult> consumer = new ArrayList<ConsumeResult>();
+  /**
+   * Listeners that did not fit inline.
+   *
+   * <p>Once the computation is complete, the list is closed and no further listeners are added.
+   */
+  private static final class Overflow {
+    boolean closed;
+    ConsumeResult[] items = new ConsumeResult[4];
+    int size;
+
+    /** Add a listener, returning false if the list has already been closed. */
+    synchronized boolean add(ConsumeResult listener) {
+      if (closed) {
+        return false;
+      }
+      if (size == items.length) {
+        items = Arrays.copyOf(items, size * 2);
+      }
+      items[size++] = listener;
+      return true;
+    }
+
+    synchronized void close() {
+      closed = true;
+    }
+  }
+
+  /** The state of the listeners once the computation is complete. */
+  private static final Object DONE = new Object();
+
+  private static final AtomicReferenceFieldUpdater<Future, Object> LISTENERS =
+      AtomicReferenceFieldUpdater.newUpdater(Future.class, Object.class, "listeners");
 
-  private final Lock ex = new ReentrantLock();
+  private static final AtomicIntegerFieldUpdater<Future> SLOTTED =
+      AtomicIntegerFieldUpdater.newUpdater(Future.class, "slotted");
+
+  /**
+   * The delegate(s) to be invoked when the computation is complete.
+   *
+   * <p>This is null if there are none, the delegate itself if there is one, an {@link Overflow} if
+   * there are more, or {@link #DONE} once they have been invoked.
+   */
+  private volatile Object listeners;
 
   /**
    * The return value of the computation.
    *
-   * <p>This should be assigned by the subclass.
+   * <p>This should be assigned by the subclass. It is volatile since, when running in parallel, the
+   * computation may be completed on a different thread from the one checking it.
    */
-  protected Object result = null;
+  protected volatile Object result = null;
+
+  /** Whether the computation has been given to the task master. */
+  private volatile int slotted;
 
   protected final TaskMaster task_master;
 
-  private boolean virgin = true;
+  /** This computation's place among everything created, built when it first creates something. */
+  private Lineage lineage;
+
+  /** The lineage of the computation that created this one, or null if it has no place in it. */
+  private final Lineage parent_lineage;
+
+  /** The position of this computation among those created by its parent. */
+  private final int parent_index;
 
   public Future(TaskMaster task_master) {
+    this(task_master, true);
+  }
+
+  /**
+   * Create a computation, which may be left out of the lineage of its creator if it never creates
+   * frames or other computations. Computations whose creation depends on timing, such as lookups
+   * that may be shared, must be left out, or frame identifiers would not be deterministic. Lineages
+   * are only kept when running in parallel.
+   */
+  Future(TaskMaster task_master, boolean in_lineage) {
     this.task_master = task_master;
+    if (in_lineage && task_master != null && task_master.tracksLineage()) {
+      parent_lineage = task_master.currentLineage();
+      parent_index = parent_lineage.next();
+    } else {
+      parent_lineage = null;
+      parent_index = 0;
+    }
   }
 
   /** Called by the TaskMaster to start or continue computation. */
   void compute() {
     if (result == null) {
-      run();
+      // Anything listened to while running is something this computation is waiting on, and
+      // anything created while running is created by it.
+      Future previous_waiter = task_master.swapWaiter(this);
+      Object previous_creator = task_master.swapCreator(this);
+      try {
+        FlightRecorder recorder = FlightRecorder.INSTANCE;
+        if (recorder == null) {
+          run();
+        } else {
+          recorder.compute(this);
+        }
+      } finally {
+        task_master.swapCreator(previous_creator);
+        task_master.swapWaiter(previous_waiter);
+      }
       if (result == null) {
         return;
       }
@@ -81,6 +162,24 @@ public abstract class Future {
     }
   }
 
+  /**
+   * An estimate of how much work the computation will create, used by {@link
+   * SchedulingPolicy#SMALLEST_FIRST}. Only the relative order of estimates matters.
+   */
+  public int estimateCost() {
+    return 1;
+  }
+
+  /** Where in the Flabbergast source this computation comes from, if known. */
+  public SourceReference getSourceReference() {
+    return null;
+  }
+
+  /** Whether the computation has produced a value. */
+  public boolean isCompleted() {
+    return result != null;
+  }
+
   /**
    * Attach a callback when the computation is complete. If already complete, the callback is
    * immediately invoked.
@@ -90,37 +189,60 @@ public abstract class Future {
   }
 
   public void listen(ConsumeResult new_consumer, boolean needs_slot) {
-    ex.lock();
-    if (result == null) {
-      consumer.add(new_consumer);
+    while (result == null) {
+      Object current = listeners;
+      if (current == DONE) {
+        break;
+      }
+      if (current instanceof Overflow) {
+        if (!((Overflow) current).add(new_consumer)) {
+          break;
+        }
+      } else {
+        Object next;
+        if (current == null) {
+          next = new_consumer;
+        } else {
+          Overflow overflow = new Overflow();
+          overflow.add((ConsumeResult) current);
+          overflow.add(new_consumer);
+          next = overflow;
+        }
+        if (!LISTENERS.compareAndSet(this, current, next)) {
+          continue;
+        }
+      }
       if (needs_slot) {
-        slotHelper();
+        if (task_master != null && task_master.isDetectingDeadlocks()) {
+          task_master.addWaitEdge(this);
+        }
+        slot();
       }
-      ex.unlock();
-    } else {
-      ex.unlock();
-      new_consumer.consume(result);
+      return;
     }
+    new_consumer.consume(result);
   }
 
   public void listenDelayed(ConsumeResult new_consumer) {
     listen(new_consumer, false);
   }
 
+  /** The lineage of frames and computations created by this computation. */
+  Lineage lineage() {
+    if (lineage == null) {
+      lineage =
+          parent_lineage == null
+              ? task_master.getRootLineage()
+              : new Lineage(parent_lineage, parent_index);
+    }
+    return lineage;
+  }
+
   /** The method that will be invoked when the result is needed. */
   protected abstract void run();
 
   public void slot() {
-    ex.lock();
-    if (result == null) {
-      slotHelper();
-    }
-    ex.unlock();
-  }
-
-  private void slotHelper() {
-    if (virgin && task_master != null) {
-      virgin = false;
+    if (result == null && task_master != null && SLOTTED.compareAndSet(this, 0, 1)) {
       task_master.slot(this);
     }
   }
@@ -129,17 +251,44 @@ public abstract class Future {
     if (result == null) {
       throw new UnsupportedOperationException();
     }
-    ex.lock();
-    ArrayList<ConsumeResult> consumer_copy = consumer;
-    consumer = null;
-    ex.unlock();
-
-    if (consumer_copy == null) {
+    Object current = LISTENERS.getAndSet(this, DONE);
+    // This computation may have waited on others even if nothing is waiting on it.
+    if (task_master != null) {
+      task_master.removeWaitEdges(this);
+    }
+    if (current == null || current == DONE) {
+      return;
+    }
+    if (task_master == null) {
+      deliverAll(current, false);
       return;
     }
+    // The listeners are not acting on behalf of whatever computation happens to be running.
+    Future previous_waiter = task_master.swapWaiter(null);
+    try {
+      deliverAll(current, task_master.isTrampolined());
+    } finally {
+      task_master.swapWaiter(previous_waiter);
+    }
+  }
 
-    for (ConsumeResult cr : consumer_copy) {
-      cr.consume(result);
+  private void deliverAll(Object current, boolean trampolined) {
+    if (current instanceof Overflow) {
+      Overflow overflow = (Overflow) current;
+      overflow.close();
+      for (int it = 0; it < overflow.size; it++) {
+        deliver(overflow.items[it], trampolined);
+      }
+    } else {
+      deliver((ConsumeResult) current, trampolined);
+    }
+  }
+
+  private void deliver(ConsumeResult listener, boolean trampolined) {
+    if (trampolined) {
+      Trampoline.deliver(listener, result);
+    } else {
+      listener.consume(result);
     }
   }
 }
@@ -26,11 +26,13 @@ public class HttpHandler implements UriHandler {
       reason.set(LibraryFailure.MISSING);
       return null;
     }
+    // Fetch the data off the scheduler so other work can continue while waiting on the network.
+    return new PendingFuture(
+        task_master, new NativeSourceReference(uri), () -> fetch(task_master, uri));
+  }
+
+  private Future fetch(TaskMaster task_master, String uri) {
     try {
-      URL url = new URL(uri);
-      if (url == null) {
-        reason.set(LibraryFailure.MISSING);
-      }
       URLConnection conn = new URL(uri).openConnection();
       byte[] data = new byte[conn.getContentLength()];
       InputStream inputStream = conn.getInputStream();
@@ -12,6 +12,7 @@ import java.time.temporal.WeekFields;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,6 +29,7 @@ public abstract class InterlockedLookup extends Future {
   public abstract class BaseSink<T> implements ConsumeResult {
     private final Class<? extends T> clazz;
     private List<Matcher<T>> handlers = new ArrayList<Matcher<T>>();
+    private String[] lookup_names;
     protected String names;
     private Set<Class<?>> types = new HashSet<Class<?>>();
 
@@ -105,9 +107,9 @@ public abstract class InterlockedLookup extends Future {
         throw new IllegalStateException("Cannot lookup after setup.");
       }
       this.names = String.join(",", names);
+      lookup_names = names;
       interlock.incrementAndGet();
-      Future input_lookup = new Lookup(task_master, source_reference, names, context);
-      input_lookup.listen(this);
+      pending_sinks.add(this);
     }
   }
 
@@ -131,9 +133,24 @@ public abstract class InterlockedLookup extends Future {
         return;
       }
       Frame frame = (Frame) input_result;
-      Map<String, T> results = new TreeMap<>();
-      interlock.addAndGet(frame.count());
-      AtomicInteger listInterlock = new AtomicInteger(frame.count());
+      Future previous_waiter = task_master.swapWaiter(InterlockedLookup.this);
+      try {
+        subscribeAll(frame);
+      } finally {
+        task_master.swapWaiter(previous_waiter);
+      }
+    }
+
+    private void subscribeAll(Frame frame) {
+      int count = frame.count();
+      if (count == Integer.MAX_VALUE) {
+        task_master.reportOtherError(
+            source_reference, String.format("“%s” has too many items.", names));
+        return;
+      }
+      Map<String, T> results = new TreeMap<>(Symbols.ORDER);
+      interlock.addAndGet(count);
+      AtomicInteger listInterlock = new AtomicInteger(count);
       for (String name : frame) {
         String arg_name = name;
         frame.getOrSubscribe(
@@ -142,7 +159,9 @@ public abstract class InterlockedLookup extends Future {
                 dispatch(
                     arg_result,
                     x -> {
-                      results.put(arg_name, x);
+                      synchronized (results) {
+                        results.put(arg_name, x);
+                      }
                       if (listInterlock.decrementAndGet() == 0) {
 
                         writer.accept(results);
@@ -185,6 +204,16 @@ public abstract class InterlockedLookup extends Future {
         return false;
       }
       Frame frame = (Frame) input;
+      Future previous_waiter = task_master.swapWaiter(InterlockedLookup.this);
+      try {
+        subscribeAll(frame);
+      } finally {
+        task_master.swapWaiter(previous_waiter);
+      }
+      return true;
+    }
+
+    private void subscribeAll(Frame frame) {
       T result = ctor.get();
       interlock.addAndGet(writers.size());
       writers
@@ -211,7 +240,6 @@ public abstract class InterlockedLookup extends Future {
                       String.format("Attribute “%s” is not defined in frame.", entry.getKey()));
                 }
               });
-      return true;
     }
   }
 
@@ -394,9 +422,13 @@ public abstract class InterlockedLookup extends Future {
     return result;
   }
 
+  private boolean blocking_started;
+  private Object blocking_result;
   protected final Context context;
   private boolean first = true;
   private AtomicInteger interlock = new AtomicInteger(1);
+  /** The sinks that have asked for lookups during setup. */
+  private List<BaseSink<?>> pending_sinks = new ArrayList<BaseSink<?>>();
   protected final SourceReference source_reference;
 
   public InterlockedLookup(
@@ -424,6 +456,11 @@ public abstract class InterlockedLookup extends Future {
     }
   }
 
+  @Override
+  public SourceReference getSourceReference() {
+    return source_reference;
+  }
+
   public <T> Sink<T> find(Class<? extends T> clazz, Consumer<T> writer) {
     return new Sink<>(clazz, writer);
   }
@@ -432,13 +469,91 @@ public abstract class InterlockedLookup extends Future {
     return new ListSink<>(clazz, writer);
   }
 
+  /**
+   * Perform the lookups requested by the sinks during setup. Single names whose values are already
+   * computed are found in one pass over the context, rather than one lookup each. Longer names, any
+   * name no frame has, and any name whose value is still being computed are given a full lookup,
+   * which reports the error if there is one and is reported if it never finishes.
+   */
+  private void lookupAll() {
+    Map<String, List<BaseSink<?>>> by_name = new HashMap<String, List<BaseSink<?>>>();
+    for (BaseSink<?> sink : pending_sinks) {
+      if (sink.lookup_names.length == 1) {
+        by_name.computeIfAbsent(sink.lookup_names[0], k -> new ArrayList<BaseSink<?>>(1)).add(sink);
+      } else {
+        context.lookup(task_master, source_reference, sink.lookup_names, null).listen(sink);
+      }
+    }
+    pending_sinks = null;
+    Map<String, List<BaseSink<?>>> waiting = new HashMap<String, List<BaseSink<?>>>();
+    for (Frame frame : context) {
+      if (by_name.isEmpty()) {
+        break;
+      }
+      Iterator<Map.Entry<String, List<BaseSink<?>>>> it = by_name.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, List<BaseSink<?>>> entry = it.next();
+        Object value = frame.get(entry.getKey());
+        if (value == null) {
+          continue;
+        }
+        it.remove();
+        if (value instanceof Future) {
+          value = ((Future) value).result;
+          if (value == null) {
+            // Waiting is left to a lookup, so that it shows up in circular evaluation reports.
+            waiting.put(entry.getKey(), entry.getValue());
+            continue;
+          }
+        }
+        for (BaseSink<?> sink : entry.getValue()) {
+          sink.consume(value);
+        }
+      }
+    }
+    by_name.putAll(waiting);
+    for (Map.Entry<String, List<BaseSink<?>>> entry : by_name.entrySet()) {
+      Future lookup =
+          context.lookup(task_master, source_reference, new String[] {entry.getKey()}, null);
+      for (BaseSink<?> sink : entry.getValue()) {
+        lookup.listen(sink);
+      }
+    }
+  }
+
   protected abstract void resolve();
 
+  /**
+   * Produce the result using blocking work performed off the scheduler.
+   *
+   * <p>This should be called from {@link #resolve()}, which will be called again once the work is
+   * complete.
+   */
+  protected final void resolveBlocking(Supplier<Object> compute) {
+    if (!blocking_started) {
+      blocking_started = true;
+      task_master.performBlocking(
+          () -> {
+            try {
+              blocking_result = compute.get();
+            } catch (Throwable e) {
+              task_master.reportOtherError(
+                  source_reference, e.getMessage() == null ? e.toString() : e.getMessage());
+              blocking_result = BlackholeFuture.INSTANCE;
+            }
+          },
+          this);
+      return;
+    }
+    result = blocking_result;
+  }
+
   @Override
   protected final void run() {
     if (first) {
       setup();
       first = false;
+      lookupAll();
       if (interlock.decrementAndGet() > 0) {
         return;
       }
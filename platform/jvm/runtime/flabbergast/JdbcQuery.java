@@ -11,10 +11,14 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class JdbcQuery extends BaseFunctionInterop<Frame> {
   private abstract static class NameChooser {
@@ -56,6 +60,13 @@ public class JdbcQuery extends BaseFunctionInterop<Frame> {
     }
   }
 
+  /**
+   * The locks of the connections that have been queried. Connections are not safe to use from
+   * several threads, and queries run off the scheduler, so each connection runs one at a time.
+   */
+  private static final Map<Connection, Lock> locks =
+      Collections.synchronizedMap(new WeakHashMap<Connection, Lock>());
+
   static final Map<Integer, Unpacker> unpackers = new HashMap<Integer, Unpacker>();
 
   private static final Calendar UTC_CALENDAR = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
@@ -148,8 +159,25 @@ public class JdbcQuery extends BaseFunctionInterop<Frame> {
     super(task_master, source_reference, context, self, container);
   }
 
+  @Override
+  protected boolean isBlocking() {
+    return true;
+  }
+
   @Override
   public Frame computeResult() throws Exception {
+    Lock lock = locks.computeIfAbsent(connection, c -> new ReentrantLock());
+    lock.lock();
+    try {
+      return query();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private Frame query() throws Exception {
+    Object event =
+        FlightRecorder.INSTANCE == null ? null : FlightRecorder.INSTANCE.startJdbcQuery();
     Statement stmt = connection.createStatement();
     ResultSet rs = stmt.executeQuery(query);
 
@@ -229,6 +257,9 @@ public class JdbcQuery extends BaseFunctionInterop<Frame> {
       list.set(name_chooser.invoke(rs, it), frame);
     }
     list.slot();
+    if (event != null) {
+      FlightRecorder.INSTANCE.finishJdbcQuery(event, query, list.count(), source_reference);
+    }
     return list;
   }
 
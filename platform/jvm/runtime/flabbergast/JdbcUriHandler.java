@@ -191,63 +191,66 @@ public class JdbcUriHandler implements UriHandler {
       reason.set(LibraryFailure.MISSING);
       return null;
     }
-    SourceReference src_ref = null;
-    try {
-      Properties params = new Properties();
-      int first_colon = 5;
-      while (first_colon < uri.length() && uri.charAt(first_colon) != ':') {
-        first_colon++;
-      }
-      if (first_colon == uri.length()) {
-        return new FailureFuture(
-            task_master, new JavaSourceReference(), "Bad provider in URI “" + uri + "”.");
-      }
-      String provider = uri.substring(4, first_colon);
-      int question_mark = first_colon;
-      while (question_mark < uri.length() && uri.charAt(question_mark) != '?') {
-        question_mark++;
-      }
-      String uri_fragment = uri.substring(first_colon + 1, question_mark);
-      if (question_mark < uri.length() - 1) {
-        for (String param_str : uri.substring(question_mark + 1).split("&")) {
-          if (param_str.length() == 0) {
-            continue;
-          }
-          String[] parts = param_str.split("=", 2);
-          if (parts.length != 2) {
-            return new FailureFuture(
-                task_master, new JavaSourceReference(), "Bad parameter “" + param_str + "”.");
-          }
-          params.setProperty(parts[0], parts[1]);
+    Properties params = new Properties();
+    int first_colon = 5;
+    while (first_colon < uri.length() && uri.charAt(first_colon) != ':') {
+      first_colon++;
+    }
+    if (first_colon == uri.length()) {
+      return new FailureFuture(
+          task_master, new JavaSourceReference(), "Bad provider in URI “" + uri + "”.");
+    }
+    String provider = uri.substring(4, first_colon);
+    int question_mark = first_colon;
+    while (question_mark < uri.length() && uri.charAt(question_mark) != '?') {
+      question_mark++;
+    }
+    String uri_fragment = uri.substring(first_colon + 1, question_mark);
+    if (question_mark < uri.length() - 1) {
+      for (String param_str : uri.substring(question_mark + 1).split("&")) {
+        if (param_str.length() == 0) {
+          continue;
+        }
+        String[] parts = param_str.split("=", 2);
+        if (parts.length != 2) {
+          return new FailureFuture(
+              task_master, new JavaSourceReference(), "Bad parameter “" + param_str + "”.");
         }
+        params.setProperty(parts[0], parts[1]);
       }
+    }
 
-      Ptr<String> err = new Ptr<String>("Bad URI.");
-      Properties properties = new Properties();
-      String jdbc_uri = JdbcParser.parse(provider, uri_fragment, params, properties, finder, err);
-      if (jdbc_uri == null) {
-        return new FailureFuture(task_master, new JavaSourceReference(), err.get());
-      }
+    Ptr<String> err = new Ptr<String>("Bad URI.");
+    Properties properties = new Properties();
+    String jdbc_uri = JdbcParser.parse(provider, uri_fragment, params, properties, finder, err);
+    if (jdbc_uri == null) {
+      return new FailureFuture(task_master, new JavaSourceReference(), err.get());
+    }
+    int plus_position = provider.indexOf('+');
+    String provider_name = plus_position == -1 ? provider : provider.substring(0, plus_position);
+    // Connecting may take a while, so do it off the scheduler.
+    return new PendingFuture(
+        task_master,
+        new NativeSourceReference(uri),
+        () -> connect(task_master, jdbc_uri, properties, provider_name));
+  }
+
+  private Future connect(
+      TaskMaster task_master, String jdbc_uri, Properties properties, String provider_name) {
+    try {
       Connection connection = DriverManager.getConnection(jdbc_uri, properties);
-      connection.setAutoCommit(false);
-      connection.setReadOnly(true);
       if (connection == null) {
-        reason.set(LibraryFailure.CORRUPT);
-        return null;
+        return new FailureFuture(
+            task_master, new JavaSourceReference(), "No driver for “" + jdbc_uri + "”.");
       }
+      connection.setAutoCommit(false);
+      connection.setReadOnly(true);
       ReflectedFrame connection_proxy =
           ReflectedFrame.create(task_master, connection, connection_hooks);
-      int plus_position = provider.indexOf('+');
-      connection_proxy.set(
-          "provider",
-          new SimpleStringish(
-              plus_position == -1 ? provider : provider.substring(0, plus_position)));
+      connection_proxy.set("provider", new SimpleStringish(provider_name));
       return new Precomputation(connection_proxy);
     } catch (SQLException e) {
-      if (src_ref == null) {
-        src_ref = new JavaSourceReference();
-      }
-      return new FailureFuture(task_master, src_ref, e.getMessage());
+      return new FailureFuture(task_master, new JavaSourceReference(), e.getMessage());
     }
   }
 
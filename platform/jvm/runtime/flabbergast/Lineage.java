@@ -0,0 +1,80 @@
+package flabbergast;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The place of a computation among the computations and frames created before it.
+ *
+ * <p>When running in parallel, frames cannot be numbered in the order they are created, since that
+ * depends on which thread gets there first. Each computation creates frames and other computations
+ * in the same order however evaluation is scheduled, so numbering them within their creator, and
+ * naming the creator the same way, gives identifiers that do not depend on timing. Names grow with
+ * the depth of the computation that created the frame.
+ *
+ * <p>This only holds for things created while a computation is running. Things created by callbacks
+ * outside of any computation are numbered within a root in the order they happen to be created.
+ * The callbacks generated by the compiler only store values and reschedule their computation, so
+ * this does not happen while evaluating compiled code.
+ */
+final class Lineage {
+  private static final AtomicIntegerFieldUpdater<Lineage> NEXT =
+      AtomicIntegerFieldUpdater.newUpdater(Lineage.class, "next");
+
+  /** The lineage for computations loaded from a URI, which may be requested by any computation. */
+  static Lineage forUri(String uri) {
+    StringBuilder prefix = new StringBuilder("u");
+    for (int it = 0; it < uri.length(); it++) {
+      char c = uri.charAt(it);
+      if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9') {
+        prefix.append(c);
+      } else {
+        prefix.append("_x").append(Integer.toHexString(c)).append('x');
+      }
+    }
+    return new Lineage(prefix.append('_').toString());
+  }
+
+  private final int index;
+
+  /** The number of things created so far. */
+  private volatile int next;
+
+  private final Lineage parent;
+
+  /** The prefix of the names of things created in this lineage, built on first use. */
+  private volatile String prefix;
+
+  Lineage(Lineage parent, int index) {
+    this.parent = parent;
+    this.index = index;
+  }
+
+  Lineage(String prefix) {
+    parent = null;
+    index = 0;
+    this.prefix = prefix;
+  }
+
+  /**
+   * The name of something created in this lineage. Names are made of digits separated by
+   * underscores after the root's prefix, so distinct lineages never produce the same name.
+   */
+  String name(long created) {
+    return prefix() + created;
+  }
+
+  private String prefix() {
+    String current = prefix;
+    if (current == null) {
+      // Racing threads build equal prefixes, so either may win.
+      current = parent.prefix() + index + "_";
+      prefix = current;
+    }
+    return current;
+  }
+
+  /** Take the position of the next thing created. */
+  int next() {
+    return NEXT.getAndIncrement(this);
+  }
+}
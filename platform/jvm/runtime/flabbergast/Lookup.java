@@ -1,47 +1,23 @@
 package flabbergast;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 /**
  * Do lookup by creating a grid of contexts where the value might reside and all the needed names.
+ *
+ * <p>Frames are tried in order and names within a frame one after another, so only one attempt is
+ * ever in progress. The lookup listens for each attempt's value itself, and records the frames
+ * visited for the names after the first in a grid, which single-name lookups never need.
  */
-public class Lookup extends Future {
-  private class Attempt implements ConsumeResult {
-    int frame;
-    int name;
-    Frame result_frame;
-    Frame source_frame;
-
-    public Attempt(int name, int frame, Frame source_frame) {
-      this.name = name;
-      this.frame = frame;
-      this.source_frame = source_frame;
-    }
-
-    @Override
-    public void consume(Object return_value) {
-      if (name == names.length - 1) {
-        result = return_value;
-        wakeupListeners();
-      } else if (return_value instanceof Frame) {
-        result_frame = ((Frame) return_value);
-        Attempt next = new Attempt(name + 1, frame, result_frame);
-        known_attempts.add(next);
-        if (result_frame.getOrSubscribe(names[name + 1], next)) {
-          return;
-        }
-        activateNext();
-      } else {
-        task_master.reportLookupError(Lookup.this, return_value.getClass());
-      }
-    }
-  }
-
+public class Lookup extends Future implements ConsumeResult {
   public static class DoLookup implements ComputeValue {
     private final String[] names;
 
     public DoLookup(String... names) {
-      this.names = names;
+      this.names = new String[names.length];
+      for (int it = 0; it < names.length; it++) {
+        this.names[it] = Symbols.intern(names[it]);
+      }
     }
 
     @Override
@@ -59,26 +35,102 @@ public class Lookup extends Future {
           return BlackholeFuture.INSTANCE;
         }
       }
-      return new Lookup(task_master, source_reference, names, context);
+      return context.lookup(task_master, source_reference, names, null);
     }
   }
 
+  /** An identical lookup that listens to this one rather than searching itself. */
+  private static final class Sharer {
+    /** The inline cache of the compiled code that started the identical lookup, if any. */
+    final LookupSite site;
+
+    final SourceReference source_reference;
+
+    Sharer(SourceReference source_reference, LookupSite site) {
+      this.source_reference = source_reference;
+      this.site = site;
+    }
+  }
+
+  /** The number of values this lookup has had to wait for. */
+  private int blocked;
+
+  /**
+   * The context searched, if the lookup is in the context's table of lookups in progress or an
+   * inline cache needs to know where the result was found.
+   */
+  private final Context context;
+
+  /** The flight recorder event for this lookup, if recording. */
+  private Object event;
+
+  /** Whether the lookup has reported an error, and so will never finish. */
+  private boolean failed;
+
+  /** The number of frames in the context that have been tried. */
   private int frame_index = 0;
 
   private final Frame[] frames;
 
-  private LinkedList<Attempt> known_attempts = new LinkedList<Attempt>();
+  /**
+   * The frame in which each name after the first was looked up, indexed by frame and then name, or
+   * null if no attempt has got past the first name.
+   */
+  private Frame[] grid;
+
+  /** The key of this lookup in its context's table of lookups in progress, or null if not in it. */
+  private final Object key;
+
+  /** The index of the name being resolved in the current frame. */
+  private int name_index;
 
   /** The name components in the lookup expression. */
   private String[] names;
 
+  /**
+   * The identical lookups that listen to this one, so that each can report an error if this one
+   * fails, or update its inline cache if it finishes.
+   */
+  private ArrayList<Sharer> sharers;
+
+  /** The inline cache of the compiled code that started this lookup, if any. */
+  private final LookupSite site;
+
   private SourceReference source_reference;
 
+  /** The statistics to which this lookup is added, if being collected. */
+  private final LookupStatistics statistics;
+
+  /** The total time spent waiting for values, if collecting statistics. */
+  private long wait_nanos;
+
+  /** When the lookup started waiting for the current value, or 0 if it is not. */
+  private long wait_start;
+
+  /** Whether the task master has been told this lookup is waiting on a value. */
+  private boolean waiting;
+
   public Lookup(
       TaskMaster task_master, SourceReference source_ref, String[] names, Context context) {
-    super(task_master);
+    this(task_master, source_ref, names, context, null, null);
+  }
+
+  Lookup(
+      TaskMaster task_master,
+      SourceReference source_ref,
+      String[] names,
+      Context context,
+      LookupSite site,
+      Object key) {
+    // Lookups may be shared or skipped by inline caches, so they must not take a place in the
+    // lineage.
+    super(task_master, false);
     this.source_reference = source_ref;
     this.names = names;
+    this.site = site;
+    this.key = key;
+    this.context = site == null && key == null ? null : context;
+    statistics = task_master.getLookupStatistics();
     frames = new Frame[context.getLength()];
     int frame_index = 0;
     for (Frame frame : context) {
@@ -87,29 +139,131 @@ public class Lookup extends Future {
     }
   }
 
+  /** A copy of a failed lookup for an identical lookup that shared it, for reporting the error. */
+  private Lookup(Lookup original, SourceReference source_ref) {
+    super(original.task_master, false);
+    source_reference = source_ref;
+    names = original.names;
+    site = null;
+    key = null;
+    context = null;
+    statistics = null;
+    frames = original.frames;
+    grid = original.grid;
+    frame_index = original.frame_index;
+    name_index = original.name_index;
+    failed = true;
+  }
+
   private void activateNext() {
     while (frame_index < frames.length) {
       int index = frame_index++;
-      Attempt root_attempt = new Attempt(0, index, frames[index]);
-      known_attempts.add(root_attempt);
-      if (frames[index].getOrSubscribe(names[0], root_attempt)) {
+      name_index = 0;
+      if (subscribe(frames[index], names[0])) {
+        noteIfWaiting();
         return;
       }
     }
-    task_master.reportLookupError(this, null);
+    fail(null);
   }
 
-  public Frame get(int name, int frame) {
-    for (int index = 0; index < known_attempts.size(); index++) {
-      Attempt current = known_attempts.get(index);
-      if (current.frame == frame && current.name > name || current.frame > frame) {
-        return null;
+  @Override
+  public void consume(Object return_value) {
+    if (wait_start != 0) {
+      wait_nanos += System.nanoTime() - wait_start;
+      wait_start = 0;
+    }
+    // Whatever is listened to from here on, the lookup is the one waiting on it.
+    Future previous_waiter = task_master.swapWaiter(this);
+    try {
+      consumeResult(return_value);
+    } finally {
+      task_master.swapWaiter(previous_waiter);
+    }
+  }
+
+  private void consumeResult(Object return_value) {
+    if (name_index == names.length - 1) {
+      result = return_value;
+      ArrayList<Sharer> finished_sharers;
+      synchronized (this) {
+        finished_sharers = sharers;
+        sharers = null;
       }
-      if (current.frame == frame && current.name == name) {
-        return current.source_frame;
+      if (site != null) {
+        site.resolved(context, frames[frame_index - 1], frame_index - 1);
       }
+      if (finished_sharers != null) {
+        for (Sharer sharer : finished_sharers) {
+          if (sharer.site != null) {
+            sharer.site.resolved(context, frames[frame_index - 1], frame_index - 1);
+          }
+        }
+      }
+      if (statistics != null) {
+        statistics.recordHit(this, frame_index, blocked, wait_nanos);
+      }
+      if (event != null) {
+        FlightRecorder.INSTANCE.finishLookup(event, this, frame_index);
+      }
+      if (key != null) {
+        context.forgetLookup(key, this);
+      }
+      wakeupListeners();
+    } else if (return_value instanceof Frame) {
+      Frame result_frame = (Frame) return_value;
+      if (grid == null) {
+        grid = new Frame[frames.length * (names.length - 1)];
+      }
+      name_index++;
+      grid[(frame_index - 1) * (names.length - 1) + name_index - 1] = result_frame;
+      if (subscribe(result_frame, names[name_index])) {
+        noteIfWaiting();
+        return;
+      }
+      activateNext();
+    } else {
+      fail(return_value.getClass());
     }
-    return null;
+  }
+
+  /** Report an error for this lookup, and for every identical lookup that shared it. */
+  private void fail(Class<?> fail_type) {
+    ArrayList<Sharer> failed_sharers;
+    synchronized (this) {
+      failed = true;
+      failed_sharers = sharers;
+      sharers = null;
+    }
+    if (key != null) {
+      context.forgetLookup(key, this);
+    }
+    if (statistics != null) {
+      statistics.recordFailure(this, blocked, wait_nanos);
+    }
+    task_master.reportLookupError(this, fail_type);
+    if (failed_sharers != null) {
+      for (Sharer sharer : failed_sharers) {
+        task_master.reportLookupError(new Lookup(this, sharer.source_reference), fail_type);
+      }
+    }
+  }
+
+  /** A lookup creates no new values, so it is cheap, but must scan its frames. */
+  @Override
+  public int estimateCost() {
+    return frames.length * names.length;
+  }
+
+  /** The frame in which a name was looked up for a frame in the context, or null if it was not. */
+  public Frame get(int name, int frame) {
+    if (frame >= frame_index) {
+      return null;
+    }
+    if (name == 0) {
+      return frames[frame];
+    }
+    return grid == null ? null : grid[frame * (names.length - 1) + name - 1];
   }
 
   public int getFrameCount() {
@@ -117,11 +271,11 @@ public class Lookup extends Future {
   }
 
   public Frame getLastFrame() {
-    return known_attempts.getLast().source_frame;
+    return frame_index == 0 ? null : get(name_index, frame_index - 1);
   }
 
   public String getLastName() {
-    return names[known_attempts.getLast().name];
+    return names[name_index];
   }
 
   public String getName() {
@@ -143,12 +297,54 @@ public class Lookup extends Future {
     return names.length;
   }
 
+  @Override
   public SourceReference getSourceReference() {
     return source_reference;
   }
 
+  /**
+   * Let an identical lookup listen to this one rather than searching itself.
+   *
+   * @return false if this lookup has already failed, so it cannot be shared.
+   */
+  synchronized boolean share(SourceReference source_reference, LookupSite site) {
+    if (failed) {
+      return false;
+    }
+    if (result == null) {
+      if (sharers == null) {
+        sharers = new ArrayList<Sharer>(2);
+      }
+      sharers.add(new Sharer(source_reference, site));
+    }
+    return true;
+  }
+
+  /** If the lookup could not finish immediately, tell the task master, in case it never does. */
+  private void noteIfWaiting() {
+    if (result == null && !waiting) {
+      waiting = true;
+      task_master.noteWaiting(this);
+    }
+  }
+
+  /** Listen for an attribute of a frame, noting whether its value has to be waited for. */
+  private boolean subscribe(Frame frame, String name) {
+    if (statistics != null) {
+      Object value = frame.get(name);
+      if (value instanceof Future && !((Future) value).isCompleted()) {
+        blocked++;
+        wait_start = System.nanoTime();
+      }
+    }
+    return frame.getOrSubscribe(name, this);
+  }
+
   @Override
   protected void run() {
+    if (FlightRecorder.INSTANCE != null) {
+      event = FlightRecorder.INSTANCE.startLookup();
+    }
     activateNext();
   }
 }
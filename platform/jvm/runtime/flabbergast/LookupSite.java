@@ -0,0 +1,122 @@
+package flabbergast;
+
+/**
+ * An inline cache for one lookup in compiled code.
+ *
+ * <p>The site remembers the frame where its last full lookup was resolved and the parts of the
+ * context that led to it. The next lookup searches for the first name only until it reaches one of
+ * those parts, which other contexts share, and if every value along the way is already computed,
+ * the result is delivered immediately. Otherwise, a full {@link Lookup} is performed, or shared
+ * with an identical one in the same context, so the cache never changes the result, only how
+ * quickly it arrives.
+ */
+public final class LookupSite {
+  /** Where a full lookup from this site was last resolved. */
+  private static final class Hint {
+    /** The frame in which the names were resolved. */
+    final Frame frame;
+
+    /** The parts of the context searched that lead to the frame. */
+    final Context[] parts;
+
+    /** The number of frames before the frame in the context searched. */
+    final int position;
+
+    Hint(Frame frame, Context[] parts, int position) {
+      this.frame = frame;
+      this.parts = parts;
+      this.position = position;
+    }
+  }
+
+  /** Get a value that is ready now, or null if it is still being computed. */
+  private static Object available(Object value) {
+    if (value instanceof Future) {
+      return ((Future) value).result;
+    }
+    return value;
+  }
+
+  /**
+   * Look up a name that the compiler found defined in the frame being computed. This is only a
+   * shortcut at run time: if that frame is the first in the context with the name and its value is
+   * ready, the value is delivered immediately; otherwise, a full lookup is performed.
+   */
+  public static void lookupSelf(
+      TaskMaster task_master,
+      SourceReference source_reference,
+      String name,
+      Context context,
+      Frame self,
+      ConsumeResult consumer) {
+    for (Frame frame : context) {
+      Object value = frame.get(name);
+      if (frame == self) {
+        value = available(value);
+        if (value != null) {
+          LookupStatistics statistics = task_master.getLookupStatistics();
+          if (statistics != null) {
+            statistics.recordShortcut(source_reference, name, LookupStatistics.Shortcut.SELF);
+          }
+          consumer.consume(value);
+          return;
+        }
+        break;
+      }
+      if (value != null) {
+        break;
+      }
+    }
+    context.lookup(task_master, source_reference, new String[] {name}, null).listen(consumer);
+  }
+
+  /** Resolve the names starting from a frame, or null if that cannot be done without waiting. */
+  private static Object resolveIn(Frame frame, String[] names) {
+    Object value = frame;
+    for (String name : names) {
+      if (!(value instanceof Frame)) {
+        return null;
+      }
+      value = available(((Frame) value).get(name));
+      if (value == null) {
+        return null;
+      }
+    }
+    return value;
+  }
+
+  /** Where the last full lookup was resolved, or null if none was. */
+  private volatile Hint hint;
+
+  /** Look up the names in the context and deliver the result to the consumer. */
+  public void lookup(
+      TaskMaster task_master,
+      SourceReference source_reference,
+      String[] names,
+      Context context,
+      ConsumeResult consumer) {
+    Hint current = hint;
+    if (current != null) {
+      Frame frame = context.findFirst(names[0], current.position + 1, current.parts, current.frame);
+      Object value = frame == null ? null : resolveIn(frame, names);
+      if (value != null) {
+        LookupStatistics statistics = task_master.getLookupStatistics();
+        if (statistics != null) {
+          statistics.recordShortcut(
+              source_reference, String.join(".", names), LookupStatistics.Shortcut.INLINE_CACHE);
+        }
+        consumer.consume(value);
+        return;
+      }
+    }
+    context.lookup(task_master, source_reference, names, this).listen(consumer);
+  }
+
+  /** Note where a full lookup from this site was resolved. */
+  void resolved(Context context, Frame frame, int position) {
+    Hint current = hint;
+    if (current == null || current.frame != frame || current.position != position) {
+      hint = new Hint(frame, context.partsLeadingTo(frame), position);
+    }
+  }
+}
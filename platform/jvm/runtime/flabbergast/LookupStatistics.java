@@ -0,0 +1,226 @@
+package flabbergast;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the lookups performed during evaluation, grouped by the source location of the
+ * lookup.
+ *
+ * <p>For each location, this counts the full lookups done, the frames they scanned before finding
+ * a value, how often they had to wait for a value to be computed and for how long, and how many
+ * failed. It also counts the lookups answered without a full lookup, either by an inline cache or
+ * by sharing an identical lookup in the same context, and which names were looked up most.
+ */
+public final class LookupStatistics {
+  /** The ways a lookup can be answered without scanning the context. */
+  enum Shortcut {
+    INLINE_CACHE,
+    SELF,
+    SHARED
+  }
+
+  /**
+   * The place a lookup was done, ignoring how it was reached, so that references made for
+   * different callers of the same code are counted together. The description is only built when
+   * the statistics are written.
+   */
+  private static final class Location {
+    private final int end_column;
+    private final int end_line;
+    private final String file_name;
+    private final String message;
+
+    /** A reference at this location, for describing it. */
+    final SourceReference reference;
+
+    private final int start_column;
+    private final int start_line;
+
+    Location(SourceReference reference) {
+      this.reference = reference;
+      if (reference instanceof BasicSourceReference) {
+        BasicSourceReference basic = (BasicSourceReference) reference;
+        file_name = basic.getFileName();
+        message = basic.getMessage();
+        start_line = basic.getStartLine();
+        start_column = basic.getStartColumn();
+        end_line = basic.getEndLine();
+        end_column = basic.getEndColumn();
+      } else {
+        // Other references are rare, so they are told apart by their description.
+        file_name = null;
+        message =
+            reference instanceof NativeSourceReference
+                ? ((NativeSourceReference) reference).getName()
+                : SourceReference.describe(reference);
+        start_line = start_column = end_line = end_column = -1;
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Location)) {
+        return false;
+      }
+      Location location = (Location) other;
+      return start_line == location.start_line
+          && start_column == location.start_column
+          && end_line == location.end_line
+          && end_column == location.end_column
+          && Objects.equals(file_name, location.file_name)
+          && Objects.equals(message, location.message);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(file_name, message, start_line, start_column, end_line, end_column);
+    }
+  }
+
+  private static final class Site {
+    final LongAdder blocked = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder frames_scanned = new LongAdder();
+    final LongAdder lookups = new LongAdder();
+    final AtomicLong max_frames_scanned = new AtomicLong();
+    final Map<String, LongAdder> names = new ConcurrentHashMap<String, LongAdder>();
+    final LongAdder[] shortcuts = new LongAdder[Shortcut.values().length];
+    final LongAdder wait_nanos = new LongAdder();
+
+    Site() {
+      for (int it = 0; it < shortcuts.length; it++) {
+        shortcuts[it] = new LongAdder();
+      }
+    }
+
+    void countName(String name) {
+      names.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+  }
+
+  /** The number of names listed for each location in the report. */
+  private static final int TOP_NAMES = 5;
+
+  private static void writeString(Writer writer, String str) throws IOException {
+    writer.write('"');
+    for (int it = 0; it < str.length(); it++) {
+      char c = str.charAt(it);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  private final Map<Location, Site> sites = new ConcurrentHashMap<Location, Site>();
+
+  LookupStatistics() {}
+
+  private Site getSite(SourceReference source_reference) {
+    return sites.computeIfAbsent(new Location(source_reference), k -> new Site());
+  }
+
+  /** Record a full lookup that did not find a value. */
+  void recordFailure(Lookup lookup, int blocked, long wait_nanos) {
+    Site site = getSite(lookup.getSourceReference());
+    site.lookups.increment();
+    site.failed.increment();
+    site.blocked.add(blocked);
+    site.wait_nanos.add(wait_nanos);
+    site.countName(lookup.getName());
+  }
+
+  /** Record a full lookup that found its value in the given number of frames. */
+  void recordHit(Lookup lookup, int frames_scanned, int blocked, long wait_nanos) {
+    Site site = getSite(lookup.getSourceReference());
+    site.lookups.increment();
+    site.frames_scanned.add(frames_scanned);
+    site.max_frames_scanned.accumulateAndGet(frames_scanned, Math::max);
+    site.blocked.add(blocked);
+    site.wait_nanos.add(wait_nanos);
+    site.countName(lookup.getName());
+  }
+
+  /** Record a lookup answered without a full lookup of its own. */
+  void recordShortcut(SourceReference source_reference, String name, Shortcut shortcut) {
+    Site site = getSite(source_reference);
+    site.shortcuts[shortcut.ordinal()].increment();
+    site.countName(name);
+  }
+
+  /**
+   * Write the statistics as a JSON array, with an object for each source location, ordered by
+   * location. Different locations can have the same description, so the description is a member of
+   * each object rather than a key.
+   */
+  public void write(Writer writer) throws IOException {
+    List<Map.Entry<String, Site>> described = new ArrayList<Map.Entry<String, Site>>();
+    for (Map.Entry<Location, Site> entry : sites.entrySet()) {
+      String location = SourceReference.describe(entry.getKey().reference);
+      described.add(
+          new AbstractMap.SimpleImmutableEntry<String, Site>(
+              location == null ? "<unknown>" : location, entry.getValue()));
+    }
+    described.sort(Map.Entry.comparingByKey());
+    writer.write("[");
+    boolean first = true;
+    for (Map.Entry<String, Site> entry : described) {
+      Site site = entry.getValue();
+      writer.write(first ? "\n  " : ",\n  ");
+      first = false;
+      writer.write("{\"location\": ");
+      writeString(writer, entry.getKey());
+      writer.write(", \"lookups\": ");
+      writer.write(Long.toString(site.lookups.sum()));
+      writer.write(", \"failed\": ");
+      writer.write(Long.toString(site.failed.sum()));
+      writer.write(", \"frames_scanned\": ");
+      writer.write(Long.toString(site.frames_scanned.sum()));
+      writer.write(", \"max_frames_scanned\": ");
+      writer.write(Long.toString(site.max_frames_scanned.get()));
+      writer.write(", \"blocked\": ");
+      writer.write(Long.toString(site.blocked.sum()));
+      writer.write(", \"wait_nanos\": ");
+      writer.write(Long.toString(site.wait_nanos.sum()));
+      for (Shortcut shortcut : Shortcut.values()) {
+        writer.write(", \"");
+        writer.write(shortcut.name().toLowerCase());
+        writer.write("\": ");
+        writer.write(Long.toString(site.shortcuts[shortcut.ordinal()].sum()));
+      }
+      writer.write(", \"names\": {");
+      List<Map.Entry<String, LongAdder>> names =
+          new ArrayList<Map.Entry<String, LongAdder>>(site.names.entrySet());
+      names.sort(
+          (a, b) -> {
+            int order = Long.compare(b.getValue().sum(), a.getValue().sum());
+            return order != 0 ? order : a.getKey().compareTo(b.getKey());
+          });
+      for (int it = 0; it < names.size() && it < TOP_NAMES; it++) {
+        if (it > 0) {
+          writer.write(", ");
+        }
+        writeString(writer, names.get(it).getKey());
+        writer.write(": ");
+        writer.write(Long.toString(names.get(it).getValue().sum()));
+      }
+      writer.write("}}");
+    }
+    writer.write(first ? "]\n" : "\n]\n");
+    writer.flush();
+  }
+}
@@ -5,25 +5,44 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
-/** Iterate over the keys of several of frames and templates. */
+/**
+ * Iterate over the keys of several of frames and templates.
+ *
+ * <p>Frames produce their keys in order, so when all the inputs are frames, their keys are merged
+ * as they are read rather than collected first. Iterating over a large frame, such as a range, then
+ * takes no extra memory.
+ */
 public class MergeIterator {
-  private Map.Entry<String, Integer> current;
+  private String current;
 
-  private final SortedMap<String, Integer> dispatchers = new TreeMap<String, Integer>();
+  private final int default_dispatcher;
+
+  /** The dispatchers for particular keys. */
+  private final SortedMap<String, Integer> dispatchers =
+      new TreeMap<String, Integer>(Symbols.ORDER);
 
   private final int exit_dispatcher;
 
+  private final Iterable<String>[] inputs;
+
+  /** The dispatchers, in key order, once iteration has started. */
   private Iterator<Map.Entry<String, Integer>> iterator;
 
+  /** The next dispatcher from {@link #iterator}, or null if there are no more. */
+  private Map.Entry<String, Integer> next_dispatcher;
+
+  /** The next key from each of {@link #sources}, or null if there are no more. */
+  private String[] next_keys;
+
   private long position;
 
+  /** The keys of each input, if they are being merged as they are read. */
+  private Iterator<String>[] sources;
+
   public MergeIterator(Iterable<String>[] inputs, int default_dispatcher, int exit_dispatcher) {
+    this.inputs = inputs;
+    this.default_dispatcher = default_dispatcher;
     this.exit_dispatcher = exit_dispatcher;
-    for (Iterable<String> input : inputs) {
-      for (String key : input) {
-        dispatchers.put(key, default_dispatcher);
-      }
-    }
   }
 
   /**
@@ -39,11 +58,11 @@ public class MergeIterator {
 
   /** The current attribute name. */
   public String getCurrent() {
-    return current.getKey();
+    return current;
   }
 
   public Stringish getCurrentish() {
-    return new SimpleStringish(current.getKey());
+    return new SimpleStringish(current);
   }
 
   /** The current attribute ordinal, 1-based per the language spec. */
@@ -51,15 +70,57 @@ public class MergeIterator {
     return position;
   }
 
+  @SuppressWarnings("unchecked")
+  private void start() {
+    boolean ordered = true;
+    for (Iterable<String> input : inputs) {
+      ordered &= input instanceof Frame;
+    }
+    if (ordered) {
+      sources = (Iterator<String>[]) new Iterator<?>[inputs.length];
+      next_keys = new String[inputs.length];
+      for (int it = 0; it < inputs.length; it++) {
+        sources[it] = inputs[it].iterator();
+        next_keys[it] = sources[it].hasNext() ? sources[it].next() : null;
+      }
+    } else {
+      for (Iterable<String> input : inputs) {
+        for (String key : input) {
+          dispatchers.putIfAbsent(key, default_dispatcher);
+        }
+      }
+    }
+    iterator = dispatchers.entrySet().iterator();
+    next_dispatcher = iterator.hasNext() ? iterator.next() : null;
+  }
+
   public int next() {
     if (iterator == null) {
-      iterator = dispatchers.entrySet().iterator();
+      start();
+    }
+    String key = next_dispatcher == null ? null : next_dispatcher.getKey();
+    if (sources != null) {
+      for (String next_key : next_keys) {
+        if (next_key != null && (key == null || Symbols.ORDER.compare(next_key, key) < 0)) {
+          key = next_key;
+        }
+      }
+      for (int it = 0; it < sources.length; it++) {
+        if (next_keys[it] != null && Symbols.ORDER.compare(next_keys[it], key) == 0) {
+          next_keys[it] = sources[it].hasNext() ? sources[it].next() : null;
+        }
+      }
+    }
+    if (key == null) {
+      return exit_dispatcher;
     }
-    if (iterator.hasNext()) {
-      current = iterator.next();
-      position++;
-      return current.getValue();
+    current = key;
+    position++;
+    if (next_dispatcher != null && Symbols.ORDER.compare(next_dispatcher.getKey(), key) == 0) {
+      int dispatcher = next_dispatcher.getValue();
+      next_dispatcher = iterator.hasNext() ? iterator.next() : null;
+      return dispatcher;
     }
-    return exit_dispatcher;
+    return default_dispatcher;
   }
 }
@@ -1,27 +1,198 @@
 package flabbergast;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
 
 /** A Frame in the Flabbergast language. */
 public class MutableFrame extends Frame {
+  /** The slots of every frame with an empty shape, which has none to set. */
+  private static final Object[] NO_SLOTS = new Object[0];
 
-  private TreeMap<String, Object> attributes = new TreeMap<String, Object>();
+  /**
+   * The computations waiting to be started for a set of frames that are slotted together.
+   *
+   * <p>When a frame is stored in another, their groups are merged: the pending computations move
+   * to the outer frame's group and the inner group forwards to it. A group is slotted once; if
+   * more computations are added afterwards, it is reopened until slotted again.
+   */
+  private static final class SlotGroup {
+    /** The group this one was merged into, if any. */
+    private volatile SlotGroup forward;
 
-  protected final TaskMaster task_master;
+    /** The computations not yet started, or null if the group has been slotted. */
+    private volatile ArrayList<Future> pending;
+
+    synchronized void add(Future computation) {
+      if (pending == null) {
+        pending = new ArrayList<Future>();
+      }
+      pending.add(computation);
+    }
+
+    /** Find the group this group has been merged into, shortening the chain as it goes. */
+    SlotGroup find() {
+      SlotGroup root = this;
+      while (root.forward != null) {
+        root = root.forward;
+      }
+      for (SlotGroup current = this; current != root; ) {
+        SlotGroup next = current.forward;
+        current.forward = root;
+        current = next;
+      }
+      return root;
+    }
+
+    /** Take over the pending computations of another group and have it forward to this one. */
+    void merge(SlotGroup other) {
+      ArrayList<Future> taken;
+      synchronized (other) {
+        taken = other.pending;
+        other.pending = null;
+        other.forward = this;
+      }
+      if (taken == null) {
+        return;
+      }
+      synchronized (this) {
+        if (pending == null) {
+          pending = taken;
+        } else if (taken.size() > pending.size()) {
+          // Copy the smaller list into the larger one.
+          taken.addAll(pending);
+          pending = taken;
+        } else {
+          pending.addAll(taken);
+        }
+      }
+    }
+
+    void slot() {
+      ArrayList<Future> computations;
+      synchronized (this) {
+        computations = pending;
+        pending = null;
+      }
+      if (computations != null) {
+        for (Future computation : computations) {
+          computation.slot();
+        }
+      }
+    }
+  }
+
+  /** The names of the attributes that have been set, in order, wherever they are kept. */
+  private final class NameIterator implements Iterator<String> {
+    private final Iterator<String> extra =
+        attributes == null ? Collections.<String>emptyIterator() : attributes.keySet().iterator();
+    private String next_extra;
+    private String next_item;
+    private int next_slot = -1;
+
+    /** The number of items whose names have been produced. */
+    private int items_named;
+
+    NameIterator() {
+      advanceSlot();
+      advanceItem();
+      next_extra = extra.hasNext() ? extra.next() : null;
+    }
+
+    private void advanceItem() {
+      next_item = items_named < item_count ? SupportFunctions.ordinalNameStr(++items_named) : null;
+    }
+
+    private void advanceSlot() {
+      do {
+        next_slot++;
+      } while (next_slot < slots.length && slots[next_slot] == null);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next_slot < slots.length || next_item != null || next_extra != null;
+    }
+
+    @Override
+    public String next() {
+      String name = next_slot < slots.length ? shape.getName(next_slot) : null;
+      if (next_item != null && (name == null || Symbols.ORDER.compare(next_item, name) < 0)) {
+        name = next_item;
+      }
+      if (next_extra != null && (name == null || Symbols.ORDER.compare(next_extra, name) < 0)) {
+        name = next_extra;
+      }
+      if (name == null) {
+        throw new NoSuchElementException();
+      }
+      if (name == next_extra) {
+        next_extra = extra.hasNext() ? extra.next() : null;
+      } else if (name == next_item) {
+        advanceItem();
+      } else {
+        advanceSlot();
+      }
+      return name;
+    }
+  }
+
+  /** The attributes that are not in the shape or items, or null if there are none. */
+  private TreeMap<String, Object> attributes;
 
-  private ArrayList<Future> unslotted = new ArrayList<Future>();
+  private int count;
+
+  /** The number of items in {@link #items}. */
+  private int item_count;
+
+  /**
+   * The values of the attributes with ordinal names 1, 2, 3, …, as in a list, or null if there are
+   * none. Attributes set in that order are kept here, so lists need no names until they are
+   * iterated.
+   */
+  private Object[] items;
+
+  /** The group with which this frame's computations are started. */
+  private SlotGroup group = new SlotGroup();
+
+  /** The names the frame is expected to have, which are kept in {@link #slots}. */
+  private final FrameShape shape;
+
+  /** The values of the attributes in the shape, or null for those not yet set. */
+  private final Object[] slots;
+
+  protected final TaskMaster task_master;
 
   public MutableFrame(
       TaskMaster task_master, SourceReference source_ref, Context context, Frame container) {
+    this(task_master, source_ref, context, container, FrameShape.EMPTY);
+  }
+
+  /**
+   * Create a frame whose attributes are expected to be the names in the shape. Attributes outside
+   * the shape can still be set, but are stored less compactly.
+   */
+  public MutableFrame(
+      TaskMaster task_master,
+      SourceReference source_ref,
+      Context context,
+      Frame container,
+      FrameShape shape) {
     super(task_master, source_ref, context, container);
+    if (FlightRecorder.INSTANCE != null) {
+      FlightRecorder.INSTANCE.createFrame(this);
+    }
     this.task_master = task_master;
+    this.shape = shape;
+    slots = shape.size() == 0 ? NO_SLOTS : new Object[shape.size()];
   }
 
   @Override
   public int count() {
-    return attributes.size();
+    return count;
   }
 
   /**
@@ -33,19 +204,53 @@ public class MutableFrame extends Frame {
     // If this frame is being looked at, then all its pending attributes
     // should
     // be slotted.
-    slot();
-    return attributes.containsKey(name) ? attributes.get(name) : null;
+    SlotGroup current = findGroup();
+    if (current.pending != null) {
+      current.slot();
+    }
+    return lookup(name);
   }
 
   /** Check if an attribute name is present in the frame. */
   @Override
   public boolean has(String name) {
-    return attributes.containsKey(name);
+    return lookup(name) != null;
   }
 
   @Override
   public Iterator<String> iterator() {
-    return attributes.keySet().iterator();
+    return new NameIterator();
+  }
+
+  private Object lookup(String name) {
+    int slot = shape.indexOf(name);
+    if (slot >= 0) {
+      return slots[slot];
+    }
+    if (items != null) {
+      long ordinal = SupportFunctions.parseOrdinalName(name);
+      if (ordinal >= 1 && ordinal <= item_count) {
+        return items[(int) ordinal - 1];
+      }
+    }
+    return attributes == null ? null : attributes.get(name);
+  }
+
+  /**
+   * Make room for the next item if the name is the ordinal that follows the existing items,
+   * returning its index, or -1 if the name is not that ordinal.
+   */
+  private int nextItem(String name) {
+    if (item_count == Integer.MAX_VALUE - 8
+        || SupportFunctions.parseOrdinalName(name) != item_count + 1) {
+      return -1;
+    }
+    if (items == null) {
+      items = new Object[8];
+    } else if (item_count == items.length) {
+      items = Arrays.copyOf(items, (int) Math.min(item_count * 2L, Integer.MAX_VALUE - 8));
+    }
+    return item_count++;
   }
 
   public void set(long ordinal, Object value) {
@@ -56,39 +261,46 @@ public class MutableFrame extends Frame {
     if (value == null) {
       return;
     }
-    if (attributes.containsKey(name)) {
+    if (lookup(name) != null) {
       throw new IllegalStateException("Redefinition of attribute " + name + ".");
     }
+    count++;
+    int slot = shape.indexOf(name);
+    int item = slot < 0 ? nextItem(name) : -1;
+    if (slot < 0 && item < 0 && attributes == null) {
+      attributes = new TreeMap<String, Object>(Symbols.ORDER);
+    }
     if (value instanceof ComputeValue) {
       Future computation =
           ((ComputeValue) value)
               .invoke(task_master, getSourceReference(), getContext(), this, getContainer());
-      attributes.put(name, computation);
+      store(slot, item, name, computation);
       /*
        * When this computation has completed, replace its value in the
        * frame.
        */
-      computation.listenDelayed(result -> attributes.put(name, result));
+      computation.listenDelayed(result -> store(slot, item, name, result));
       /*
        * If the value is a computation, it cannot be slotted for execution
        * since it might depend on lookups that reference this frame.
        * Therefore, put it in a queue for later activation.
        */
-      unslotted.add(computation);
+      findGroup().add(computation);
     } else {
       if (value instanceof MutableFrame) {
         /*
          * If the value added is a frame, it might be in a complicated
-         * slotting arrangement. The safest thing to do is to steal its
-         * unslotted children and slot them when we are slotted (or
-         * absorbed into another frame.
+         * slotting arrangement. The safest thing to do is to merge its
+         * group into ours, so its unslotted children are slotted when we
+         * are slotted (or absorbed into another frame).
          */
-
-        MutableFrame other = (MutableFrame) value;
-        unslotted.addAll(other.unslotted);
-        other.unslotted = unslotted;
+        SlotGroup mine = findGroup();
+        SlotGroup theirs = ((MutableFrame) value).findGroup();
+        if (mine != theirs) {
+          mine.merge(theirs);
+        }
       }
-      attributes.put(name, value);
+      store(slot, item, name, value);
     }
   }
 
@@ -99,11 +311,30 @@ public class MutableFrame extends Frame {
    * immediately, since the frame may still have members to be added and those changes will be
    * visible to the lookup environments of those computations. Only when a frame is “returned” can
    * the computations be started. This should be called before returning to trigger computation.
+   *
+   * <p>Once returned, a frame may be read from several threads at once, so the pending list is
+   * taken under a lock, and only one reader starts the computations.
    */
   public void slot() {
-    for (Future computation : unslotted) {
-      computation.slot();
+    findGroup().slot();
+  }
+
+  private void store(int slot, int item, String name, Object value) {
+    if (slot >= 0) {
+      slots[slot] = value;
+    } else if (item >= 0) {
+      items[item] = value;
+    } else {
+      attributes.put(name, value);
+    }
+  }
+
+  private SlotGroup findGroup() {
+    SlotGroup current = group;
+    if (current.forward != null) {
+      current = current.find();
+      group = current;
     }
-    unslotted.clear();
+    return current;
   }
 }
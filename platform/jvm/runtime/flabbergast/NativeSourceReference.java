@@ -13,6 +13,10 @@ public class NativeSourceReference extends SourceReference {
     this.name = name;
   }
 
+  public String getName() {
+    return name;
+  }
+
   @Override
   public void write(Writer writer, String prefix, Set<SourceReference> seen) throws IOException {
     writer.write(prefix);
@@ -16,7 +16,7 @@ public class OrderByIterator<T extends Comparable<T>> {
   private Iterator<String> setup_iterator;
 
   public OrderByIterator(Iterable<String>[] inputs) {
-    TreeSet<String> set = new TreeSet<String>();
+    TreeSet<String> set = new TreeSet<String>(Symbols.ORDER);
     for (Iterable<String> input : inputs) {
       for (String key : input) {
         set.add(key);
@@ -0,0 +1,66 @@
+package flabbergast;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A computation whose value is produced by blocking work (I/O, compilation) that is performed off
+ * the scheduler.
+ *
+ * <p>The work produces another computation, which this one then waits on. Until the work is done,
+ * the scheduler is free to evaluate other computations.
+ */
+public class PendingFuture extends Future {
+  private Future inner;
+  private final AtomicInteger interlock = new AtomicInteger();
+  private final SourceReference source_reference;
+  private int state;
+  private Object value;
+  private final Supplier<Future> work;
+
+  public PendingFuture(
+      TaskMaster task_master, SourceReference source_reference, Supplier<Future> work) {
+    super(task_master);
+    this.source_reference = source_reference;
+    this.work = work;
+  }
+
+  @Override
+  protected void run() {
+    if (state == 0) {
+      state = 1;
+      task_master.performBlocking(
+          () -> {
+            // Whatever happens, the computation must be left with something to wait on.
+            Future produced;
+            try {
+              produced = work.get();
+            } catch (Throwable e) {
+              produced =
+                  new FailureFuture(
+                      task_master,
+                      source_reference,
+                      e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+            inner = produced;
+          },
+          this);
+      return;
+    }
+    if (state == 1) {
+      state = 2;
+      interlock.set(2);
+      inner.listen(
+          result -> {
+            value = result;
+            if (interlock.decrementAndGet() == 0) {
+              task_master.slot(this);
+            }
+          });
+      if (interlock.decrementAndGet() > 0) {
+        return;
+      }
+    }
+    result = value;
+  }
+}
@@ -0,0 +1,68 @@
+package flabbergast;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of consecutive integers, as produced by “Through”.
+ *
+ * <p>The attribute names and values are computed as they are read, so a large range takes no more
+ * memory than a small one.
+ */
+class RangeFrame extends Frame {
+  /** The number of items in the range. */
+  private final long length;
+
+  /** The value of the first item. */
+  private final long start;
+
+  RangeFrame(
+      TaskMaster task_master,
+      SourceReference source_ref,
+      long start,
+      long length,
+      Context context,
+      Frame container) {
+    super(task_master, source_ref, context, container);
+    this.start = start;
+    this.length = length;
+  }
+
+  @Override
+  public int count() {
+    return (int) Math.min(length, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public Object get(String name) {
+    long ordinal = SupportFunctions.parseOrdinalName(name);
+    return ordinal < 1 || ordinal > length ? null : start + ordinal - 1;
+  }
+
+  @Override
+  public boolean has(String name) {
+    long ordinal = SupportFunctions.parseOrdinalName(name);
+    return ordinal >= 1 && ordinal <= length;
+  }
+
+  /** The names of the items, in order. Since ordinal names sort numerically, this is name order. */
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private long next = 1;
+
+      @Override
+      public boolean hasNext() {
+        return next <= length;
+      }
+
+      @Override
+      public String next() {
+        if (next > length) {
+          throw new NoSuchElementException();
+        }
+        return SupportFunctions.ordinalNameStr(next++);
+      }
+    };
+  }
+}
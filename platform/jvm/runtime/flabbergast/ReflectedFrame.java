@@ -14,7 +14,19 @@ public class ReflectedFrame extends Frame {
 
   public static <T> ReflectedFrame create(
       String id, T backing, Map<String, Transform<T>> accessors) {
-    TreeMap<String, Object> attributes = new TreeMap<String, Object>();
+    return new ReflectedFrame(id, new JavaSourceReference(), backing, reflect(backing, accessors));
+  }
+
+  public static <T> ReflectedFrame create(
+      TaskMaster task_master, T backing, Map<String, Transform<T>> accessors) {
+    return new ReflectedFrame(
+        task_master, new JavaSourceReference(), backing, reflect(backing, accessors));
+  }
+
+  /** Compute the attributes of a frame from the accessors over the backing object. */
+  private static <T> TreeMap<String, Object> reflect(
+      T backing, Map<String, Transform<T>> accessors) {
+    TreeMap<String, Object> attributes = new TreeMap<String, Object>(Symbols.ORDER);
     for (Entry<String, Transform<T>> entry : accessors.entrySet()) {
       Object result = entry.getValue().invoke(backing);
       if (result == null) {
@@ -38,18 +50,23 @@ public class ReflectedFrame extends Frame {
       }
       attributes.put(entry.getKey(), result);
     }
-    return new ReflectedFrame(id, new JavaSourceReference(), backing, attributes);
-  }
-
-  public static <T> ReflectedFrame create(
-      TaskMaster task_master, T backing, Map<String, Transform<T>> accessors) {
-    return create(SupportFunctions.ordinalNameStr(task_master.nextId()), backing, accessors);
+    return attributes;
   }
 
   private final TreeMap<String, Object> attributes;
 
   private final Object backing;
 
+  private ReflectedFrame(
+      TaskMaster task_master,
+      SourceReference source_ref,
+      Object backing,
+      TreeMap<String, Object> attributes) {
+    super(task_master, source_ref, null, null);
+    this.backing = backing;
+    this.attributes = attributes;
+  }
+
   private ReflectedFrame(
       String id, SourceReference source_ref, Object backing, TreeMap<String, Object> attributes) {
     super(id, source_ref, null, null);
@@ -0,0 +1,42 @@
+package flabbergast;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/** Decides the order in which the task master performs slotted computations. */
+public interface SchedulingPolicy {
+  /**
+   * Perform computations in the order they were slotted. This evaluates the program breadth-first,
+   * so every sibling is started before any finishes.
+   */
+  SchedulingPolicy FIFO = ArrayDeque::new;
+
+  /**
+   * Perform the most recently slotted computation first. This evaluates the program depth-first,
+   * so a subtree tends to finish, and its intermediate values become garbage, before its siblings
+   * start. Peak memory grows with the depth of the program rather than its width.
+   */
+  SchedulingPolicy LIFO = () -> Collections.asLifoQueue(new ArrayDeque<Future>());
+
+  /**
+   * Perform the computations with the smallest estimated cost first. Compiled computations are
+   * estimated by the number of points at which they may wait for other values, lookups by the
+   * number of frames they may search, and other computations as 1.
+   */
+  SchedulingPolicy SMALLEST_FIRST =
+      () -> new PriorityQueue<Future>(Comparator.comparingInt(Future::estimateCost));
+
+  /** Create the queue holding computations waiting to be performed, when running serially. */
+  Queue<Future> createQueue();
+
+  /**
+   * Whether the work-stealing pool should take computations in the order they were slotted, when
+   * running in parallel. Otherwise, each thread takes its most recent computation first.
+   */
+  default boolean isFifoWhenParallel() {
+    return this != LIFO;
+  }
+}
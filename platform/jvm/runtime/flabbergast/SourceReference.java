@@ -1,12 +1,46 @@
 package flabbergast;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.HashSet;
 import java.util.Set;
 
 /** Description of the current Flabbergast stack. */
 public abstract class SourceReference {
+  /**
+   * Describe a source reference on one line, without its callers, for reports that list many
+   * locations. Returns null for a null reference.
+   */
+  static String describe(SourceReference reference) {
+    if (reference == null) {
+      return null;
+    }
+    if (reference instanceof BasicSourceReference) {
+      BasicSourceReference basic = (BasicSourceReference) reference;
+      return String.format(
+          "%s:%d:%d-%d:%d: %s",
+          basic.getFileName(),
+          basic.getStartLine(),
+          basic.getStartColumn(),
+          basic.getEndLine(),
+          basic.getEndColumn(),
+          basic.getMessage());
+    }
+    if (reference instanceof NativeSourceReference) {
+      return ((NativeSourceReference) reference).getName();
+    }
+    StringWriter writer = new StringWriter();
+    try {
+      reference.write(writer, "");
+    } catch (IOException e) {
+      return null;
+    }
+    String text = writer.toString();
+    int newline = text.indexOf('\n');
+    return newline == -1 ? text : text.substring(0, newline);
+  }
+
   /** Write the current stack trace. */
   public void write(Writer writer, String prefix) throws IOException {
     write(writer, prefix, new HashSet<SourceReference>());
@@ -3,6 +3,10 @@ package flabbergast;
 public class SupportFunctions {
   private static char[] symbols = createOrdinalSymbols();
 
+  /** The length of the names produced by {@link #ordinalNameStr(long)}. */
+  private static final int ORDINAL_LENGTH =
+      (int) (Long.SIZE * Math.log(2) / Math.log(symbols.length)) + 1;
+
   private static char[] createOrdinalSymbols() {
     char[] array = new char[62];
     for (int it = 0; it < 10; it++) {
@@ -48,7 +52,41 @@ public class SupportFunctions {
   }
 
   public static String ordinalNameStr(long id) {
-    char[] id_str = new char[(int) (Long.SIZE * Math.log(2) / Math.log(symbols.length)) + 1];
+    String symbol = Symbols.ordinal(id);
+    return symbol == null ? formatOrdinalName(id) : symbol;
+  }
+
+  /**
+   * Get the positive ordinal an attribute name was produced from by {@link #ordinalNameStr(long)},
+   * or -1 if it is not such a name.
+   */
+  static long parseOrdinalName(String name) {
+    if (name.length() != ORDINAL_LENGTH || name.charAt(0) != 'f') {
+      return -1;
+    }
+    long id = 0;
+    for (int it = 1; it < ORDINAL_LENGTH; it++) {
+      char c = name.charAt(it);
+      int digit;
+      if (c >= '0' && c <= '9') {
+        digit = c - '0';
+      } else if (c >= 'A' && c <= 'Z') {
+        digit = c - 'A' + 10;
+      } else if (c >= 'a' && c <= 'z') {
+        digit = c - 'a' + 36;
+      } else {
+        return -1;
+      }
+      if (id > (Long.MAX_VALUE - digit) / symbols.length) {
+        return -1;
+      }
+      id = id * symbols.length + digit;
+    }
+    return id;
+  }
+
+  static String formatOrdinalName(long id) {
+    char[] id_str = new char[ORDINAL_LENGTH];
     if (id < 0) {
       id_str[0] = 'e';
       id = Long.MAX_VALUE + id;
@@ -0,0 +1,46 @@
+package flabbergast;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Canonical attribute names.
+ *
+ * <p>Names are interned in the JVM's string pool, so the string constants in compiled code are
+ * already canonical and any name put through {@link #intern(String)} is the identical object. The
+ * pool does not keep names that are no longer used. Maps of attributes are ordered by {@link
+ * #ORDER}, which is the usual string order: it only saves comparing a name with itself, and names
+ * that differ are still compared character by character.
+ */
+public final class Symbols {
+  /** The number of ordinal names kept canonical. */
+  private static final int ORDINAL_CACHE = 4096;
+
+  private static final AtomicReferenceArray<String> ORDINALS =
+      new AtomicReferenceArray<String>(ORDINAL_CACHE);
+
+  /** The order of attribute names, matching identical names without comparing their characters. */
+  public static final Comparator<String> ORDER = (a, b) -> a == b ? 0 : a.compareTo(b);
+
+  /** Get the canonical instance of a name. */
+  public static String intern(String name) {
+    return name.intern();
+  }
+
+  /**
+   * Get the canonical name for a small ordinal, or null if the ordinal is outside the range kept.
+   */
+  static String ordinal(long id) {
+    if (id < 0 || id >= ORDINAL_CACHE) {
+      return null;
+    }
+    String symbol = ORDINALS.get((int) id);
+    if (symbol == null) {
+      symbol = intern(SupportFunctions.formatOrdinalName(id));
+      ORDINALS.set((int) id, symbol);
+    }
+    return symbol;
+  }
+
+  private Symbols() {}
+}
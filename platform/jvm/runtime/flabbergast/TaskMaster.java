@@ -4,16 +4,56 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-/** Scheduler for computations. */
+/**
+ * Scheduler for computations.
+ *
+ * <p>By default, all computations are performed on the thread that calls {@link #run()}. If the
+ * parallelism is increased, computations are instead distributed over a work-stealing pool. Since
+ * Flabbergast values are immutable, the result of the program is the same either way; only the
+ * order in which errors are reported may differ. Frame identifiers, as produced by “GenerateId”,
+ * are normally numbered in the order frames are created. In parallel, they are instead derived
+ * from the {@link Lineage lineage} of the computation that created the frame, so they are the same
+ * however the threads are scheduled, though not the same as when running serially.
+ *
+ * <p>Computations that must block (fetching or compiling external URIs) hand that work to a
+ * separate executor using {@link #performBlocking(Runnable, Future)} and are rescheduled when it is
+ * done, so evaluation continues in the meantime. Virtual threads are used for this work when the
+ * JVM provides them.
+ *
+ * <p>Evaluation can be limited by the number of computation steps, the time taken, and the number
+ * of frames created. Once a limit is reached, an error is reported and no further computations are
+ * performed.
+ *
+ * <p>Circular evaluation is normally only discovered once there is nothing left to compute. If
+ * deadlock detection is enabled, the task master instead keeps a graph of which computations are
+ * waiting on which others and searches it for cycles whenever the number of waits has doubled since
+ * the last search, and whenever the queue drains, so a cycle is reported soon after it forms. A
+ * cycle that has been reported is not reported again as circular evaluation at the end of the run.
+ */
 public abstract class TaskMaster implements Iterable<Lookup> {
   public enum LibraryFailure {
     BAD_NAME,
@@ -25,6 +65,25 @@ public abstract class TaskMaster implements Iterable<Lookup> {
     public void invoke(String error_msg);
   }
 
+  /** A pool thread, which counts its own steps so that threads do not contend on the total. */
+  private static final class Worker extends ForkJoinWorkerThread {
+    /** The steps not yet added to the total. */
+    int steps;
+
+    Worker(ForkJoinPool pool) {
+      super(pool);
+    }
+  }
+
+  private static final SourceReference BUDGET_REFERENCE =
+      new NativeSourceReference("<evaluation budget>");
+
+  /** How many steps a pool thread counts before adding them to the total. */
+  private static final int STEP_BATCH = 256;
+
+  /** The fewest waits recorded before the wait graph is searched for cycles again. */
+  private static final int MIN_WAIT_CHECK = 64;
+
   private static ServiceLoader<UriService> URI_SERVICES = ServiceLoader.load(UriService.class);
 
   private static boolean verifySymbol(String str, ReportError error) {
@@ -79,17 +138,112 @@ public abstract class TaskMaster implements Iterable<Lookup> {
         });
   }
 
-  private Queue<Future> computations = new LinkedList<Future>();
+  /** The number of computations waiting on blocking work. */
+  private final AtomicInteger blocked = new AtomicInteger();
+
+  private ExecutorService blocking_executor;
+
+  /** Whether a step limit is set, so that steps need to be counted. */
+  private boolean budgeted;
+
+  private Queue<Future> computations = SchedulingPolicy.FIFO.createQueue();
+
+  /**
+   * The computation, or the lineage, on whose behalf the current thread is creating frames and
+   * computations, or null if it is not acting for any.
+   */
+  private final ThreadLocal<Object> current_creator = new ThreadLocal<Object>();
+
+  /** The computation on whose behalf the current thread is listening to other computations. */
+  private final ThreadLocal<Future> current_waiter = new ThreadLocal<Future>();
+
+  /**
+   * The time, as given by {@link System#nanoTime()}, after which the current run stops, if there is
+   * a time limit.
+   */
+  private long deadline;
+
+  /** Computations in cycles that have already been reported, if detecting deadlocks. */
+  private final Set<Future> deadlocked =
+      Collections.newSetFromMap(new IdentityHashMap<Future, Boolean>());
+
+  private boolean detect_deadlocks;
+
+  /** Whether an evaluation limit has been reached. */
+  private volatile boolean exhausted;
 
   private Map<String, Future> external_cache = new HashMap<String, Future>();
 
+  /** The first exception thrown by a computation running in the pool. */
+  private final AtomicReference<RuntimeException> failure =
+      new AtomicReference<RuntimeException>();
+
   private ArrayList<UriHandler> handlers = new ArrayList<UriHandler>();
 
-  /** These are computations that have not completed. */
-  private Set<Lookup> inflight = new HashSet<Lookup>();
+  /** The lineage of frames and computations not created by any computation. */
+  private final Lineage root_lineage = new Lineage("f");
+
+  /** These are computations that have not completed, if tracking all lookups. */
+  private Set<Lookup> inflight =
+      Collections.newSetFromMap(new ConcurrentHashMap<Lookup, Boolean>());
+
+  /** The statistics about lookups, if being collected. */
+  private LookupStatistics lookup_statistics;
 
+  private long max_frames = Long.MAX_VALUE;
+
+  private long max_steps = Long.MAX_VALUE;
+
+  /** The number of frames created, for the frame limit. */
   private AtomicInteger next_id = new AtomicInteger();
 
+  private int parallelism = 1;
+
+  /** The work-stealing pool, while running in parallel. */
+  private volatile ForkJoinPool pool;
+
+  /** The number of computation steps performed, not counting those pool threads hold back. */
+  private final AtomicLong steps = new AtomicLong();
+
+  /** The time each run may take, in nanoseconds, or 0 if there is no limit. */
+  private long time_limit;
+
+  private boolean track_lookups;
+
+  private SchedulingPolicy scheduling_policy = SchedulingPolicy.FIFO;
+
+  /** Computations slotted by blocking work, while running serially. */
+  private final Queue<Future> posted = new ConcurrentLinkedQueue<Future>();
+
+  /** The thread performing computations, while running serially. */
+  private volatile Thread scheduler;
+
+  private boolean trampolined = true;
+
+  /** Computations whose blocking work has finished and which must be rescheduled. */
+  private final BlockingQueue<Future> unblocked = new LinkedBlockingQueue<Future>();
+
+  /**
+   * For each computation, the computations it is waiting on, if detecting deadlocks. Edges to
+   * computations that have since completed are ignored.
+   */
+  private final Map<Future, List<Future>> waits_for = new IdentityHashMap<Future, List<Future>>();
+
+  /** The number of edges in the wait graph. */
+  private int wait_edges;
+
+  /** The number of edges added to the wait graph since it was last searched for cycles. */
+  private int wait_edges_unchecked;
+
+  /**
+   * Lookups that have had to wait for a value, if not tracking all lookups. Completed lookups are
+   * only purged when the list grows.
+   */
+  private final ArrayList<Lookup> waiting_lookups = new ArrayList<Lookup>();
+
+  /** The size at which completed lookups are next purged from the waiting list. */
+  private int waiting_lookups_purge = 1024;
+
   public TaskMaster() {}
 
   void addAllUriHandlers(ResourcePathFinder finder, EnumSet<LoadRule> flags) {
@@ -128,26 +282,402 @@ public abstract class TaskMaster implements Iterable<Lookup> {
     handlers.add(new UriInstantiator(handler));
   }
 
+  /**
+   * Wait for blocking work to finish and reschedule the computations waiting on it.
+   *
+   * @return false if there is no blocking work outstanding.
+   */
+  private boolean awaitUnblocked() {
+    if (blocked.get() == 0) {
+      return false;
+    }
+    try {
+      if (time_limit == 0) {
+        rescheduleUnblocked(unblocked.take());
+      } else {
+        Future computation = unblocked.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (computation == null) {
+          exhaust("Evaluation exceeded the time limit.");
+          return false;
+        }
+        rescheduleUnblocked(computation);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    drainUnblocked();
+    return true;
+  }
+
+  /**
+   * Record that the current computation is waiting on another, and search for cycles if the graph
+   * has doubled in size since the last search.
+   */
+  void addWaitEdge(Future target) {
+    Future waiter = current_waiter.get();
+    if (waiter == null || waiter == target) {
+      return;
+    }
+    synchronized (waits_for) {
+      List<Future> targets = waits_for.get(waiter);
+      if (targets == null) {
+        targets = new ArrayList<Future>(2);
+        waits_for.put(waiter, targets);
+      }
+      targets.add(target);
+      wait_edges++;
+      if (++wait_edges_unchecked < Math.max(MIN_WAIT_CHECK, wait_edges / 2)) {
+        return;
+      }
+    }
+    checkWaitCycles();
+  }
+
+  /** Search the wait graph for cycles that have not been reported and report them. */
+  private void checkWaitCycles() {
+    List<List<Future>> cycles;
+    synchronized (waits_for) {
+      if (wait_edges_unchecked == 0) {
+        return;
+      }
+      wait_edges_unchecked = 0;
+      cycles = findWaitCycles();
+    }
+    for (List<Future> cycle : cycles) {
+      reportDeadlock(cycle);
+    }
+  }
+
   protected void clearInFlight() {
     inflight.clear();
+    synchronized (waiting_lookups) {
+      waiting_lookups.clear();
+    }
+    synchronized (waits_for) {
+      waits_for.clear();
+      deadlocked.clear();
+      wait_edges = 0;
+      wait_edges_unchecked = 0;
+    }
+  }
+
+  /**
+   * Stop evaluation because a limit has been reached.
+   *
+   * <p>Lookups that have not finished are forgotten, since they were not stopped by circular
+   * evaluation.
+   */
+  private synchronized void exhaust(String message) {
+    if (exhausted) {
+      return;
+    }
+    exhausted = true;
+    reportOtherError(BUDGET_REFERENCE, message);
+    clearInFlight();
+  }
+
+  /** Reschedule any computations whose blocking work has finished, without waiting. */
+  private void drainUnblocked() {
+    Future computation;
+    while ((computation = unblocked.poll()) != null) {
+      rescheduleUnblocked(computation);
+    }
+  }
+
+  /** The lineage of whatever the current thread is creating frames and computations for. */
+  Lineage currentLineage() {
+    Object creator = current_creator.get();
+    if (creator instanceof Future) {
+      return ((Future) creator).lineage();
+    }
+    return creator == null ? root_lineage : (Lineage) creator;
+  }
+
+  /** Run a computation in the pool, capturing any failure to be rethrown by the scheduler. */
+  private void execute(ForkJoinPool current_pool, Future computation) {
+    ForkJoinTask<?> task =
+        ForkJoinTask.adapt(
+            () -> {
+              if (exhausted || budgeted && !withinBudget()) {
+                return;
+              }
+              try {
+                computation.compute();
+              } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+              }
+            });
+    if (ForkJoinTask.getPool() == current_pool) {
+      task.fork();
+    } else {
+      current_pool.execute(task);
+    }
+  }
+
+  /**
+   * Find the cycles of incomplete computations, each waiting on the next and the last on the first,
+   * that do not include any computation already reported. This is a single depth-first search of
+   * the wait graph, so it takes time proportional to the size of the graph.
+   */
+  private List<List<Future>> findWaitCycles() {
+    List<List<Future>> cycles = new ArrayList<List<Future>>();
+    // The position of each computation on the current path, or -1 once it has been searched.
+    Map<Future, Integer> positions = new IdentityHashMap<Future, Integer>();
+    ArrayList<Future> path = new ArrayList<Future>();
+    ArrayList<Iterator<Future>> pending = new ArrayList<Iterator<Future>>();
+    for (Map.Entry<Future, List<Future>> start : waits_for.entrySet()) {
+      if (start.getKey().isCompleted()
+          || deadlocked.contains(start.getKey())
+          || positions.containsKey(start.getKey())) {
+        continue;
+      }
+      positions.put(start.getKey(), 0);
+      path.add(start.getKey());
+      pending.add(start.getValue().iterator());
+      while (!pending.isEmpty()) {
+        Iterator<Future> targets = pending.get(pending.size() - 1);
+        if (!targets.hasNext()) {
+          positions.put(path.remove(path.size() - 1), -1);
+          pending.remove(pending.size() - 1);
+          continue;
+        }
+        Future target = targets.next();
+        if (target.isCompleted() || deadlocked.contains(target)) {
+          continue;
+        }
+        Integer position = positions.get(target);
+        if (position == null) {
+          List<Future> next_targets = waits_for.get(target);
+          positions.put(target, path.size());
+          path.add(target);
+          pending.add(
+              next_targets == null
+                  ? Collections.<Future>emptyIterator()
+                  : next_targets.iterator());
+        } else if (position >= 0) {
+          List<Future> cycle = new ArrayList<Future>(path.subList(position, path.size()));
+          deadlocked.addAll(cycle);
+          cycles.add(cycle);
+        }
+      }
+    }
+    return cycles;
+  }
+
+  private synchronized ExecutorService getBlockingExecutor() {
+    if (blocking_executor == null) {
+      try {
+        blocking_executor =
+            (ExecutorService)
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        blocking_executor =
+            Executors.newCachedThreadPool(
+                runnable -> {
+                  Thread thread = new Thread(runnable, "flabbergast-blocking");
+                  thread.setDaemon(true);
+                  return thread;
+                });
+      }
+    }
+    return blocking_executor;
   }
 
   public void getExternal(String uri, ConsumeResult target) {
-    if (external_cache.containsKey(uri)) {
-      external_cache.get(uri).listen(target);
+    Future computation;
+    // Resolution is locked so that a URI is only ever resolved once, but the listener is attached
+    // outside the lock since it may be invoked immediately.
+    Object event = null;
+    Ptr<String> handler_name = new Ptr<String>();
+    synchronized (external_cache) {
+      computation = external_cache.get(uri);
+      if (computation == null) {
+        if (FlightRecorder.INSTANCE != null) {
+          event = FlightRecorder.INSTANCE.startExternal();
+        }
+        // Whichever computation asks first, the library is the same, so it gets a lineage of its
+        // own.
+        Object previous_creator = tracksLineage() ? swapCreator(Lineage.forUri(uri)) : null;
+        try {
+          computation = resolveExternal(uri, handler_name);
+        } finally {
+          swapCreator(previous_creator);
+        }
+        external_cache.put(uri, computation);
+      }
+    }
+    if (event != null) {
+      Object started = event;
+      computation.listenDelayed(
+          result -> FlightRecorder.INSTANCE.finishExternal(started, uri, handler_name.get()));
+    }
+    computation.listen(target);
+  }
+
+  /** The lineage of frames and computations not created by any computation. */
+  Lineage getRootLineage() {
+    return root_lineage;
+  }
+
+  /**
+   * Whether frames and computations are placed in lineages, so that frame identifiers do not depend
+   * on timing. This is only needed when running in parallel; otherwise, frames are numbered in the
+   * order they are created.
+   */
+  boolean tracksLineage() {
+    return parallelism > 1;
+  }
+
+  /** Whether evaluation was stopped because a limit was reached. */
+  public boolean isExhausted() {
+    return exhausted;
+  }
+
+  /** Whether cycles of computations waiting on each other are detected while running. */
+  public boolean isDetectingDeadlocks() {
+    return detect_deadlocks;
+  }
+
+  /** The statistics about lookups collected so far, or null if they are not being collected. */
+  public LookupStatistics getLookupStatistics() {
+    return lookup_statistics;
+  }
+
+  public boolean hasInflightLookups() {
+    return iterator().hasNext();
+  }
+
+  /** Whether every lookup is recorded while in flight, rather than only those that wait. */
+  public boolean isTrackingLookups() {
+    return track_lookups;
+  }
+
+  @Override
+  public Iterator<Lookup> iterator() {
+    ArrayList<Lookup> blocked_lookups = new ArrayList<Lookup>();
+    if (track_lookups) {
+      blocked_lookups.addAll(inflight);
+    } else {
+      synchronized (waiting_lookups) {
+        for (Lookup lookup : waiting_lookups) {
+          if (!lookup.isCompleted()) {
+            blocked_lookups.add(lookup);
+          }
+        }
+      }
+    }
+    // Lookups in cycles that have already been reported are not reported again.
+    synchronized (waits_for) {
+      if (!deadlocked.isEmpty()) {
+        blocked_lookups.removeIf(deadlocked::contains);
+      }
+    }
+    return blocked_lookups.iterator();
+  }
+
+  /**
+   * Whether completed computations queue the delivery of their results to listeners rather than
+   * invoking them directly.
+   */
+  public boolean isTrampolined() {
+    return trampolined;
+  }
+
+  public long nextId() {
+    long id = next_id.getAndIncrement();
+    if (id >= max_frames && !exhausted) {
+      exhaust(String.format("Evaluation exceeded the limit of %d frames.", max_frames));
+    }
+    return id;
+  }
+
+  public SchedulingPolicy getSchedulingPolicy() {
+    return scheduling_policy;
+  }
+
+  /** The number of threads used to perform computations. */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Record that a lookup is waiting for a value.
+   *
+   * <p>If the program stalls, the lookups that are still waiting are those involved in circular
+   * evaluation.
+   */
+  void noteWaiting(Lookup lookup) {
+    if (track_lookups) {
       return;
     }
+    synchronized (waiting_lookups) {
+      if (waiting_lookups.size() >= waiting_lookups_purge) {
+        waiting_lookups.removeIf(Future::isCompleted);
+        waiting_lookups_purge = Math.max(1024, waiting_lookups.size() * 2);
+      }
+      waiting_lookups.add(lookup);
+    }
+  }
+
+  /**
+   * Perform blocking work off the scheduler.
+   *
+   * <p>Once the work is complete, the computation is slotted again. The computation must not expect
+   * to be run in the meantime.
+   */
+  public void performBlocking(Runnable work, Future computation) {
+    blocked.incrementAndGet();
+    getBlockingExecutor()
+        .execute(
+            () -> {
+              // The work is part of the computation, so anything it creates is the computation's.
+              Object previous_creator = swapCreator(computation);
+              try {
+                work.run();
+              } finally {
+                swapCreator(previous_creator);
+                ForkJoinPool current_pool = pool;
+                boolean executed = false;
+                if (current_pool != null) {
+                  try {
+                    // The pool can take the computation directly, but the scheduler still needs to
+                    // be told that this blocking work is finished.
+                    execute(current_pool, computation);
+                    executed = true;
+                  } catch (RejectedExecutionException e) {
+                    // The pool was shut down since it was read; leave the computation for the next
+                    // run.
+                  }
+                }
+                unblocked.add(executed ? BlackholeFuture.INSTANCE : computation);
+              }
+            });
+  }
+
+  /**
+   * Report an error resolving an external URI.
+   *
+   * <p>Errors may be reported from several threads at once, when running in parallel or from
+   * blocking work, so implementations must be thread-safe, as must those of the other report
+   * methods.
+   */
+  public abstract void reportExternalError(String uri, LibraryFailure reason);
+
+  /**
+   * Find the handler for a URI and get the computation that produces its value. If the URI cannot
+   * be resolved, an error is reported and a computation that never completes is returned.
+   */
+  private Future resolveExternal(String uri, Ptr<String> handler_name) {
     if (uri.startsWith("lib:")) {
       if (uri.length() < 5) {
         reportExternalError(uri, LibraryFailure.BAD_NAME);
-        external_cache.put(uri, BlackholeFuture.INSTANCE);
-        return;
+        return BlackholeFuture.INSTANCE;
       }
       for (int it = 5; it < uri.length(); it++) {
         if (uri.charAt(it) != '/' && !Character.isLetterOrDigit(uri.charAt(it))) {
           reportExternalError(uri, LibraryFailure.BAD_NAME);
-          external_cache.put(uri, BlackholeFuture.INSTANCE);
-          return;
+          return BlackholeFuture.INSTANCE;
         }
       }
     }
@@ -157,34 +687,54 @@ public abstract class TaskMaster implements Iterable<Lookup> {
       Future computation = handler.resolveUri(this, uri, reason);
       if (reason.get() != null && reason.get() != LibraryFailure.MISSING) {
         reportExternalError(uri, reason.get());
-        external_cache.put(uri, BlackholeFuture.INSTANCE);
-        return;
+        return BlackholeFuture.INSTANCE;
       }
       if (computation != null) {
-        external_cache.put(uri, computation);
-        computation.listen(target);
-        return;
+        handler_name.set(handler.getUriName());
+        return computation;
       }
     }
     reportExternalError(uri, LibraryFailure.MISSING);
-    external_cache.put(uri, BlackholeFuture.INSTANCE);
-  }
-
-  public boolean hasInflightLookups() {
-    return inflight.size() > 0;
+    return BlackholeFuture.INSTANCE;
   }
 
-  @Override
-  public Iterator<Lookup> iterator() {
-    return inflight.iterator();
+  /** Forget what a computation was waiting on, since it has completed. */
+  void removeWaitEdges(Future waiter) {
+    if (detect_deadlocks) {
+      synchronized (waits_for) {
+        List<Future> targets = waits_for.remove(waiter);
+        if (targets != null) {
+          wait_edges -= targets.size();
+        }
+        deadlocked.remove(waiter);
+      }
+    }
   }
 
-  public long nextId() {
-    return next_id.getAndIncrement();
+  /**
+   * Report a cycle of computations, each waiting on the next and the last on the first.
+   *
+   * <p>Only lookups are described, since other computations have no meaningful name.
+   */
+  protected void reportDeadlock(List<Future> cycle) {
+    StringBuilder message = new StringBuilder("Circular evaluation detected: ");
+    Lookup first = null;
+    for (Future computation : cycle) {
+      if (computation instanceof Lookup) {
+        Lookup lookup = (Lookup) computation;
+        if (first == null) {
+          first = lookup;
+        }
+        message.append(String.format("“%s” → ", lookup.getName()));
+      }
+    }
+    message.append(first == null ? "…" : String.format("“%s”", first.getName()));
+    SourceReference reference = first == null ? null : first.getSourceReference();
+    reportOtherError(
+        reference == null ? new NativeSourceReference("<circular evaluation>") : reference,
+        message.toString());
   }
 
-  public abstract void reportExternalError(String uri, LibraryFailure reason);
-
   /** Report an error during lookup. */
   public void reportLookupError(Lookup lookup, Class<?> fail_type) {
     if (fail_type == null) {
@@ -203,22 +753,265 @@ public abstract class TaskMaster implements Iterable<Lookup> {
   /** Report an error during execution of the program. */
   public abstract void reportOtherError(SourceReference reference, String message);
 
-  /** Perform computations until the Flabbergast program is complete or deadlocked. */
+  private void rescheduleUnblocked(Future computation) {
+    // Anything slotted by the blocking work must be queued before the computation waiting on it.
+    Future posted_computation;
+    while ((posted_computation = posted.poll()) != null) {
+      computations.offer(posted_computation);
+    }
+    blocked.decrementAndGet();
+    if (computation != BlackholeFuture.INSTANCE) {
+      slot(computation);
+    }
+  }
+
+  /**
+   * Perform computations until the Flabbergast program is complete or deadlocked.
+   *
+   * <p>If there is a time limit, it starts now, and a timer stops evaluation once it has passed,
+   * even if a computation takes a long time.
+   */
   public void run() {
     Collections.sort(handlers, (a, b) -> a.getPriority() - b.getPriority());
-    while (!computations.isEmpty()) {
+    Timer watchdog = null;
+    if (time_limit != 0) {
+      deadline = System.nanoTime() + time_limit;
+      watchdog = new Timer("flabbergast-time-limit", true);
+      watchdog.schedule(
+          new TimerTask() {
+            @Override
+            public void run() {
+              exhaust("Evaluation exceeded the time limit.");
+            }
+          },
+          TimeUnit.NANOSECONDS.toMillis(time_limit));
+    }
+    try {
+      if (parallelism < 2) {
+        scheduler = Thread.currentThread();
+        try {
+          runSerial();
+        } finally {
+          scheduler = null;
+        }
+      } else {
+        runParallel();
+      }
+    } finally {
+      if (watchdog != null) {
+        watchdog.cancel();
+      }
+    }
+  }
+
+  private void runParallel() {
+    ForkJoinPool current_pool =
+        new ForkJoinPool(parallelism, Worker::new, null, scheduling_policy.isFifoWhenParallel());
+    pool = current_pool;
+    try {
+      do {
+        while (!computations.isEmpty()) {
+          execute(current_pool, computations.poll());
+        }
+        current_pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.DAYS);
+        RuntimeException e = failure.getAndSet(null);
+        if (e != null) {
+          throw e;
+        }
+        if (detect_deadlocks && !exhausted) {
+          checkWaitCycles();
+        }
+      } while (!exhausted && awaitUnblocked());
+    } finally {
+      // Computations slotted after this point are queued for the next run.
+      pool = null;
+      current_pool.shutdown();
+    }
+    if (exhausted) {
+      // Lookups may have been started by computations still running when the limit was reached.
+      clearInFlight();
+    }
+  }
+
+  private void runSerial() {
+    while (true) {
       Future task = computations.poll();
+      if (task == null) {
+        if (detect_deadlocks && !exhausted) {
+          checkWaitCycles();
+        }
+        if (!exhausted && awaitUnblocked()) {
+          continue;
+        }
+        return;
+      }
+      if (exhausted || budgeted && !withinBudget()) {
+        computations.clear();
+        posted.clear();
+        return;
+      }
       task.compute();
+      if (blocked.get() > 0) {
+        drainUnblocked();
+      }
+    }
+  }
+
+  /**
+   * Set whether statistics about lookups are collected. This should be set before evaluation
+   * starts; lookups already started are not counted.
+   */
+  public void setCollectingLookupStatistics(boolean collect) {
+    if (!collect) {
+      lookup_statistics = null;
+    } else if (lookup_statistics == null) {
+      lookup_statistics = new LookupStatistics();
+    }
+  }
+
+  /**
+   * Set whether cycles of computations waiting on each other are detected while running.
+   *
+   * <p>This must not be changed while {@link #run()} is in progress.
+   */
+  public void setDetectingDeadlocks(boolean detect_deadlocks) {
+    this.detect_deadlocks = detect_deadlocks;
+  }
+
+  /** Limit the number of frames that may be created. */
+  public void setFrameLimit(long max_frames) {
+    this.max_frames = max_frames;
+  }
+
+  /**
+   * Set the number of threads used to perform computations.
+   *
+   * <p>This must not be changed while {@link #run()} is in progress.
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one.");
     }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Set the order in which computations are performed.
+   *
+   * <p>This must not be changed while {@link #run()} is in progress. Computations already slotted
+   * are kept.
+   */
+  public void setSchedulingPolicy(SchedulingPolicy scheduling_policy) {
+    Queue<Future> queue = scheduling_policy.createQueue();
+    queue.addAll(computations);
+    computations = queue;
+    this.scheduling_policy = scheduling_policy;
+  }
+
+  /**
+   * Limit the number of computation steps that may be performed.
+   *
+   * <p>A step is one attempt to make progress on a computation, so a computation that waits on
+   * others may take several. When running in parallel, each thread adds its steps to the total in
+   * batches, so a few hundred steps per thread more than the limit may be performed.
+   */
+  public void setStepLimit(long max_steps) {
+    this.max_steps = max_steps;
+    budgeted = true;
+  }
+
+  /** Stop evaluation once the given amount of time has elapsed from the start of {@link #run()}. */
+  public void setTimeLimit(long duration, TimeUnit unit) {
+    time_limit = Math.max(1, unit.toNanos(duration));
+  }
+
+  /**
+   * Set whether results are delivered to listeners through a queue.
+   *
+   * <p>Delivering results directly nests a call on the stack for every link in a chain of
+   * dependencies, which can overflow the stack on large inputs. Queuing them keeps the stack depth
+   * bounded.
+   */
+  public void setTrampolined(boolean trampolined) {
+    this.trampolined = trampolined;
+  }
+
+  /**
+   * Set whether every lookup is recorded while in flight.
+   *
+   * <p>By default, only lookups that have to wait for a value are recorded, which is enough to
+   * report circular evaluation without bookkeeping for every lookup.
+   */
+  public void setTrackingLookups(boolean track_lookups) {
+    this.track_lookups = track_lookups;
   }
 
   /** Add a computation to be executed. */
   public void slot(final Future computation) {
-    if (computation instanceof Lookup && !inflight.contains(computation)) {
-      inflight.add((Lookup) computation);
+    if (exhausted) {
+      return;
+    }
+    if (track_lookups && computation instanceof Lookup && inflight.add((Lookup) computation)) {
       computation.listenDelayed(result -> inflight.remove(computation));
     }
-    computations.offer(computation);
+    ForkJoinPool current_pool = pool;
+    if (current_pool != null) {
+      execute(current_pool, computation);
+    } else if (scheduler == null || scheduler == Thread.currentThread()) {
+      computations.offer(computation);
+    } else {
+      posted.add(computation);
+    }
+  }
+
+  /**
+   * Set the computation, or lineage, on whose behalf this thread creates frames and computations.
+   * This does nothing unless lineages are kept.
+   *
+   * @return the previous one, which should be restored afterwards.
+   */
+  Object swapCreator(Object creator) {
+    if (!tracksLineage()) {
+      return null;
+    }
+    Object previous = current_creator.get();
+    current_creator.set(creator);
+    return previous;
+  }
+
+  /**
+   * Set the computation on whose behalf other computations are being listened to by this thread.
+   *
+   * @return the previous computation, which should be restored afterwards.
+   */
+  Future swapWaiter(Future waiter) {
+    if (!detect_deadlocks) {
+      return null;
+    }
+    Future previous = current_waiter.get();
+    current_waiter.set(waiter);
+    return previous;
+  }
+
+  /** Count a step and check that no limit has been reached. */
+  private boolean withinBudget() {
+    long step;
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Worker) {
+      Worker worker = (Worker) thread;
+      if (++worker.steps < STEP_BATCH) {
+        return true;
+      }
+      step = steps.addAndGet(worker.steps);
+      worker.steps = 0;
+    } else {
+      step = steps.incrementAndGet();
+    }
+    if (step > max_steps) {
+      exhaust(String.format("Evaluation exceeded the limit of %d steps.", max_steps));
+      return false;
+    }
+    return true;
   }
 
   public boolean verifySymbol(final SourceReference source_reference, String str) {
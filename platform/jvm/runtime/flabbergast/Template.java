@@ -12,6 +12,9 @@ public class Template implements Iterable<String> {
 
   private Context context;
 
+  /** The shape of frames instantiated from this template, built when first needed. */
+  private volatile FrameShape shape;
+
   private SourceReference source_reference;
 
   public Template(SourceReference source_ref, Context context, Frame container) {
@@ -41,6 +44,16 @@ public class Template implements Iterable<String> {
     return context;
   }
 
+  /** The shape for frames instantiated from this template, with all of its attribute names. */
+  public FrameShape getShape() {
+    FrameShape result = shape;
+    if (result == null) {
+      result = FrameShape.of(attributes.keySet().toArray(new String[attributes.size()]));
+      shape = result;
+    }
+    return result;
+  }
+
   /** The stack trace at the time of creation. */
   public SourceReference getSourceReference() {
     return source_reference;
@@ -59,5 +72,6 @@ public class Template implements Iterable<String> {
       throw new IllegalStateException("Redefinition of attribute " + name + ".");
     }
     attributes.put(name, value);
+    shape = null;
   }
 }
@@ -0,0 +1,61 @@
+package flabbergast;
+
+import java.util.ArrayDeque;
+
+/**
+ * Delivers results to listeners iteratively.
+ *
+ * <p>Waking up a listener can complete other computations, which wake up their listeners in turn.
+ * Rather than nesting these calls, each thread queues deliveries and the outermost one drains the
+ * queue, so the stack depth does not grow with the length of the dependency chain.
+ */
+final class Trampoline {
+  private static final ThreadLocal<Trampoline> CURRENT =
+      new ThreadLocal<Trampoline>() {
+        @Override
+        protected Trampoline initialValue() {
+          return new Trampoline();
+        }
+      };
+
+  /** Deliver a result to a listener, now or once the outer delivery on this thread is done. */
+  static void deliver(ConsumeResult listener, Object result) {
+    Trampoline trampoline = CURRENT.get();
+    trampoline.pending.addLast(listener);
+    trampoline.pending.addLast(result);
+    if (trampoline.draining) {
+      return;
+    }
+    trampoline.draining = true;
+    RuntimeException failure = null;
+    try {
+      while (!trampoline.pending.isEmpty()) {
+        ConsumeResult next = (ConsumeResult) trampoline.pending.pollFirst();
+        try {
+          next.consume(trampoline.pending.pollFirst());
+        } catch (RuntimeException e) {
+          // The other listeners must still be woken, or they would wait forever.
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+    } finally {
+      // Only an error leaves deliveries behind, and this thread is in no state to make them.
+      trampoline.pending.clear();
+      trampoline.draining = false;
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private boolean draining;
+
+  /** Alternating listeners and the results to give them. */
+  private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+
+  private Trampoline() {}
+}
@@ -22,6 +22,33 @@ public class UriInstantiator implements UriHandler {
 
   @Override
   public Future resolveUri(TaskMaster task_master, String uri, Ptr<LibraryFailure> reason) {
+    if (loader instanceof DeferredUriLoader) {
+      if (!((DeferredUriLoader) loader).canResolveUri(uri, reason)) {
+        return null;
+      }
+      return new PendingFuture(
+          task_master,
+          new NativeSourceReference(uri),
+          () -> {
+            Ptr<LibraryFailure> deferred_reason = new Ptr<LibraryFailure>();
+            Future computation = instantiate(task_master, uri, deferred_reason);
+            if (computation == null) {
+              return new Future(task_master) {
+                @Override
+                protected void run() {
+                  LibraryFailure failure = deferred_reason.get();
+                  task_master.reportExternalError(
+                      uri, failure == null ? LibraryFailure.MISSING : failure);
+                }
+              };
+            }
+            return computation;
+          });
+    }
+    return instantiate(task_master, uri, reason);
+  }
+
+  private Future instantiate(TaskMaster task_master, String uri, Ptr<LibraryFailure> reason) {
     Class<? extends Future> t = loader.resolveUri(uri, reason);
     if (t == null) {
       return null;
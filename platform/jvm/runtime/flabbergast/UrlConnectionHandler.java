@@ -11,12 +11,23 @@ public abstract class UrlConnectionHandler implements UriHandler {
   @Override
   public final Future resolveUri(TaskMaster task_master, String uri, Ptr<LibraryFailure> reason) {
 
+    URL url;
+    try {
+      url = convert(uri);
+    } catch (Exception e) {
+      return new FailureFuture(task_master, new NativeSourceReference(uri), e.getMessage());
+    }
+    if (url == null) {
+      reason.set(LibraryFailure.MISSING);
+      return null;
+    }
+    // Fetch the data off the scheduler so other work can continue while waiting on the network.
+    return new PendingFuture(
+        task_master, new NativeSourceReference(uri), () -> fetch(task_master, uri));
+  }
+
+  private Future fetch(TaskMaster task_master, String uri) {
     try {
-      URL url = convert(uri);
-      if (url == null) {
-        reason.set(LibraryFailure.MISSING);
-        return null;
-      }
       URLConnection conn = new URL(uri).openConnection();
       byte[] data = new byte[conn.getContentLength()];
       InputStream inputStream = conn.getInputStream();
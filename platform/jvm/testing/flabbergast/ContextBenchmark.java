@@ -0,0 +1,110 @@
+package flabbergast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure the cost of building contexts for deep chains of template instantiations, comparing
+ * shared contexts against copying the frame lists on every append.
+ *
+ * <p>Each level of the chain instantiates a template whose context shares the root frame with the
+ * caller, as a file-level template would. Arguments are the chain depths (default 1000 10000
+ * 100000) and the number of frames in the template's context (default 4).
+ */
+public class ContextBenchmark {
+  private static final SourceReference SOURCE_REFERENCE =
+      new NativeSourceReference("context benchmark");
+
+  /** Append the way contexts did before they were shared. */
+  private static List<Frame> copyingAppend(List<Frame> original, List<Frame> new_tail) {
+    int filter = 0;
+    List<Frame> list = new ArrayList<Frame>(original.size() + new_tail.size());
+    for (Frame frame : original) {
+      list.add(frame);
+      filter |= frame.hashCode();
+    }
+    for (Frame frame : new_tail) {
+      int hash = frame.hashCode();
+      if ((hash & filter) != hash || !list.contains(frame)) {
+        list.add(frame);
+        filter |= hash;
+      }
+    }
+    return list;
+  }
+
+  public static void main(String[] args) {
+    List<Integer> depths = new ArrayList<Integer>();
+    int template_size = 4;
+    for (String arg : args) {
+      if (arg.startsWith("-t")) {
+        template_size = Integer.parseInt(arg.substring(2));
+      } else {
+        depths.add(Integer.parseInt(arg));
+      }
+    }
+    if (depths.isEmpty()) {
+      depths.add(1000);
+      depths.add(10000);
+      depths.add(100000);
+    }
+    TaskMaster task_master = new TestTaskMaster();
+    Frame root = new MutableFrame(task_master, SOURCE_REFERENCE, null, null);
+    Context template = root.getContext();
+    for (int it = 1; it < template_size; it++) {
+      template = new MutableFrame(task_master, SOURCE_REFERENCE, template, null).getContext();
+    }
+
+    System.out.printf(
+        "%-10s %10s %12s %14s %10s\n", "strategy", "depth", "time (ms)", "ns per level", "length");
+    for (int depth : depths) {
+      // Warm up, then measure.
+      shared(task_master, root, template, depth);
+      report("shared", depth, shared(task_master, root, template, depth));
+    }
+    List<Frame> template_list = new ArrayList<Frame>();
+    for (Frame frame : template) {
+      template_list.add(frame);
+    }
+    for (int depth : depths) {
+      if (depth > 20000) {
+        System.out.printf("%-10s %10d %12s\n", "copying", depth, "skipped");
+        continue;
+      }
+      copying(task_master, root, template_list, depth);
+      report("copying", depth, copying(task_master, root, template_list, depth));
+    }
+  }
+
+  private static long[] copying(
+      TaskMaster task_master, Frame root, List<Frame> template, int depth) {
+    long start = System.nanoTime();
+    List<Frame> context = new ArrayList<Frame>();
+    context.add(root);
+    for (int it = 0; it < depth; it++) {
+      List<Frame> appended = copyingAppend(context, template);
+      Frame frame = new MutableFrame(task_master, SOURCE_REFERENCE, null, null);
+      context = new ArrayList<Frame>(appended.size() + 1);
+      context.add(frame);
+      context.addAll(appended);
+    }
+    return new long[] {System.nanoTime() - start, context.size()};
+  }
+
+  private static void report(String strategy, int depth, long[] result) {
+    System.out.printf(
+        "%-10s %10d %12d %14d %10d\n",
+        strategy, depth, result[0] / 1000000, result[0] / depth, result[1]);
+  }
+
+  private static long[] shared(TaskMaster task_master, Frame root, Context template, int depth) {
+    long start = System.nanoTime();
+    Context context = root.getContext();
+    for (int it = 0; it < depth; it++) {
+      context =
+          new MutableFrame(task_master, SOURCE_REFERENCE, Context.append(context, template), null)
+              .getContext();
+    }
+    return new long[] {System.nanoTime() - start, context.getLength()};
+  }
+}
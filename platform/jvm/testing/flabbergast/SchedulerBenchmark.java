@@ -0,0 +1,161 @@
+package flabbergast;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare the throughput and peak heap of the scheduling policies, run serially and in parallel on
+ * a ForkJoin pool, on the working tests and a large generated list.
+ *
+ * <p>Arguments are the directory of working tests (default ../../tests/working), the length of the
+ * generated list (default 100000), the number of repetitions (default 3), and the number of threads
+ * for the parallel runs (default the number of processors).
+ */
+public class SchedulerBenchmark {
+  /** A scheduling policy and the number of threads to use it with. */
+  private static final class Configuration {
+    final int parallelism;
+    final SchedulingPolicy policy;
+
+    Configuration(SchedulingPolicy policy, int parallelism) {
+      this.policy = policy;
+      this.parallelism = parallelism;
+    }
+  }
+
+  private static final Map<String, SchedulingPolicy> POLICIES =
+      new LinkedHashMap<String, SchedulingPolicy>();
+
+  static {
+    POLICIES.put("fifo", SchedulingPolicy.FIFO);
+    POLICIES.put("lifo", SchedulingPolicy.LIFO);
+    POLICIES.put("smallest", SchedulingPolicy.SMALLEST_FIRST);
+  }
+
+  private static Class<? extends Future> compile(File file, int id) throws Exception {
+    DirtyCollector collector = new DirtyCollector();
+    DynamicCompiler compiler = new DynamicCompiler(collector);
+    Parser parser = Parser.open(file.getAbsolutePath());
+    Class<? extends Future> type =
+        parser.parseFile(collector, compiler.getCompilationUnit(), "Bench" + id);
+    if (collector.isParseDirty() || collector.isAnalyseDirty()) {
+      return null;
+    }
+    return type;
+  }
+
+  /** Write a program that builds a list of frames of the given length and then reduces it. */
+  private static File generateList(int length) throws IOException {
+    File file = File.createTempFile("flabbergast-bench", ".o_0");
+    file.deleteOnExit();
+    try (Writer writer = new FileWriter(file)) {
+      writer.write(String.format("items : For x : 1 Through %d Select {\n", length));
+      writer.write("\ta : x\n\tb : a * 2\n\tc : a + b\n}\n");
+      writer.write(
+          String.format(
+              "value : (For Each items Reduce acc + c With acc : 0) == %d\n",
+              3L * length * (length + 1) / 2));
+    }
+    return file;
+  }
+
+  public static void main(String[] args) throws Exception {
+    File root = new File(args.length > 0 ? args[0] : "../../tests/working");
+    int list_length = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int threads =
+        args.length > 3
+            ? Integer.parseInt(args[3])
+            : Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    Map<String, Configuration> configurations = new LinkedHashMap<String, Configuration>();
+    for (Map.Entry<String, SchedulingPolicy> policy : POLICIES.entrySet()) {
+      configurations.put(policy.getKey(), new Configuration(policy.getValue(), 1));
+    }
+    for (Map.Entry<String, SchedulingPolicy> policy : POLICIES.entrySet()) {
+      configurations.put(
+          String.format("%s/%d", policy.getKey(), threads),
+          new Configuration(policy.getValue(), threads));
+    }
+
+    List<Class<? extends Future>> tests = new ArrayList<Class<? extends Future>>();
+    File[] files = root.listFiles((dir, name) -> name.endsWith(".o_0"));
+    int id = 0;
+    for (File file : files == null ? new File[0] : files) {
+      Class<? extends Future> type = compile(file, id++);
+      if (type != null) {
+        tests.add(type);
+      }
+    }
+    Class<? extends Future> list = compile(generateList(list_length), id++);
+    if (list == null) {
+      System.err.println("Failed to compile generated list.");
+      System.exit(1);
+    }
+
+    System.out.printf(
+        "%-12s %-22s %12s %14s %8s\n",
+        "policy", "workload", "time (ms)", "peak heap (KiB)", "passed");
+    for (Map.Entry<String, Configuration> configuration : configurations.entrySet()) {
+      for (int it = 0; it < repetitions; it++) {
+        report(configuration, String.format("%d working tests", tests.size()), tests);
+        List<Class<? extends Future>> single = new ArrayList<Class<? extends Future>>();
+        single.add(list);
+        report(configuration, String.format("list of %d", list_length), single);
+      }
+    }
+  }
+
+  private static long peakHeap() {
+    long total = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        total += pool.getPeakUsage().getUsed();
+      }
+    }
+    return total;
+  }
+
+  private static void report(
+      Map.Entry<String, Configuration> configuration,
+      String workload,
+      List<Class<? extends Future>> programs) {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      pool.resetPeakUsage();
+    }
+    int passed = 0;
+    long start = System.nanoTime();
+    for (Class<? extends Future> program : programs) {
+      TaskMaster task_master = new TestTaskMaster();
+      task_master.addUriHandler(BuiltInLibraries.INSTANCE);
+      task_master.addUriHandler(StandardInterop.INSTANCE);
+      task_master.setSchedulingPolicy(configuration.getValue().policy);
+      task_master.setParallelism(configuration.getValue().parallelism);
+      CheckResult tester = new CheckResult(task_master, program);
+      tester.slot();
+      task_master.run();
+      if (tester.getSuccess()) {
+        passed++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.printf(
+        "%-12s %-22s %12d %14d %5d/%d\n",
+        configuration.getKey(),
+        workload,
+        elapsed / 1000000,
+        peakHeap() / 1024,
+        passed,
+        programs.size());
+  }
+}
@@ -1,8 +1,14 @@
 package flabbergast;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class TestHarness {
   private static final class OnlySourceFiles implements FilenameFilter {
@@ -19,6 +25,79 @@ public class TestHarness {
     return collection;
   }
 
+  /** Run a compiled test program and check whether it produced True. */
+  private static boolean check(TaskMaster task_master, Class<? extends Future> test_type) {
+    CheckResult tester = new CheckResult(task_master, test_type);
+    tester.slot();
+    task_master.run();
+    return tester.getSuccess();
+  }
+
+  /**
+   * Create a task master to run test programs.
+   *
+   * <p>A program may give settings in comments at the start of its file, one per line:
+   *
+   * <pre>
+   * # Detect deadlocks
+   * # Frame limit: 100
+   * # Step limit: 1000
+   * # Time limit: 10
+   * # Error: Evaluation exceeded the limit of 1000 steps.
+   * </pre>
+   *
+   * <p>The time limit is in milliseconds. For each “Error” line, the program must report an error
+   * containing the text.
+   */
+  private static TestTaskMaster createTaskMaster(List<String> settings, boolean parallel) {
+    TestTaskMaster task_master = new TestTaskMaster();
+    task_master.addUriHandler(BuiltInLibraries.INSTANCE);
+    task_master.addUriHandler(StandardInterop.INSTANCE);
+    if (parallel) {
+      // Collecting statistics while running in parallel also checks that recording them is safe.
+      task_master.setCollectingLookupStatistics(true);
+      task_master.setParallelism(4);
+      task_master.setSchedulingPolicy(SchedulingPolicy.LIFO);
+    }
+    for (String setting : settings) {
+      if (setting.equals("Detect deadlocks")) {
+        task_master.setDetectingDeadlocks(true);
+      } else if (setting.startsWith("Frame limit: ")) {
+        task_master.setFrameLimit(Long.parseLong(setting.substring(13)));
+      } else if (setting.startsWith("Step limit: ")) {
+        task_master.setStepLimit(Long.parseLong(setting.substring(12)));
+      } else if (setting.startsWith("Time limit: ")) {
+        task_master.setTimeLimit(Long.parseLong(setting.substring(12)), TimeUnit.MILLISECONDS);
+      }
+    }
+    return task_master;
+  }
+
+  /** Check that a program reported every error its settings expect. */
+  private static boolean hasReportedAll(TestTaskMaster task_master, List<String> settings) {
+    for (String setting : settings) {
+      if (setting.startsWith("Error: ") && !task_master.hasReported(setting.substring(7))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Read the settings in the comments at the start of a test program. */
+  private static List<String> readSettings(File file) throws IOException {
+    List<String> settings = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null && line.startsWith("# ")) {
+        settings.add(line.substring(2).trim());
+      }
+    } finally {
+      reader.close();
+    }
+    return settings;
+  }
+
   private static File combine(String... parts) {
     StringBuilder buffer = new StringBuilder();
     for (int it = 0; it < parts.length; it++) {
@@ -52,11 +131,13 @@ public class TestHarness {
       all_succeeded &= collector.isParseDirty();
     }
     ResourcePathFinder resource_finder = new ResourcePathFinder();
-    TaskMaster task_master = new TestTaskMaster();
-    task_master.addUriHandler(BuiltInLibraries.INSTANCE);
-    task_master.addUriHandler(StandardInterop.INSTANCE);
+    List<String> no_settings = Collections.emptyList();
+    TestTaskMaster task_master = createTaskMaster(no_settings, false);
+    // Every program is also run in parallel, in a different order, and must give the same result.
+    TestTaskMaster parallel_task_master = createTaskMaster(no_settings, true);
     for (File file : alwaysIterable(new File(root, "errors").listFiles(new OnlySourceFiles()))) {
       boolean success;
+      boolean same = true;
       try {
         DirtyCollector collector = new DirtyCollector();
         DynamicCompiler compiler = new DynamicCompiler(collector);
@@ -68,19 +149,28 @@ public class TestHarness {
             parser.parseFile(collector, compiler.getCompilationUnit(), "Test" + test_id);
         success = collector.isAnalyseDirty();
         if (!success && test_type != null) {
-          CheckResult tester = new CheckResult(task_master, test_type);
-          tester.slot();
-          task_master.run();
-          success = !tester.getSuccess();
+          // Programs with settings get task masters of their own, since limits cannot be undone.
+          List<String> settings = readSettings(file);
+          TestTaskMaster serial =
+              settings.isEmpty() ? task_master : createTaskMaster(settings, false);
+          TestTaskMaster parallel =
+              settings.isEmpty() ? parallel_task_master : createTaskMaster(settings, true);
+          boolean serial_failed = !check(serial, test_type) && hasReportedAll(serial, settings);
+          same =
+              serial_failed
+                  == (!check(parallel, test_type) && hasReportedAll(parallel, settings));
+          success = serial_failed && same;
         }
       } catch (Exception e) {
         success = false;
       }
-      System.err.printf("%s %s %s %s\n", success ? "----" : "FAIL", "E", type, file.getName());
+      System.err.printf(
+          "%s %s %s %s\n", success ? "----" : same ? "FAIL" : "PARA", "E", type, file.getName());
       all_succeeded &= success;
     }
     for (File file : alwaysIterable(new File(root, "working").listFiles(new OnlySourceFiles()))) {
       boolean success;
+      boolean same = true;
       try {
         DirtyCollector collector = new DirtyCollector();
         DynamicCompiler compiler = new DynamicCompiler(collector);
@@ -91,15 +181,15 @@ public class TestHarness {
             parser.parseFile(collector, compiler.getCompilationUnit(), "Test" + test_id);
         success = !collector.isAnalyseDirty() && !collector.isParseDirty();
         if (success && test_type != null) {
-          CheckResult tester = new CheckResult(task_master, test_type);
-          tester.slot();
-          task_master.run();
-          success = tester.getSuccess();
+          boolean serial_success = check(task_master, test_type);
+          same = serial_success == check(parallel_task_master, test_type);
+          success = serial_success && same;
         }
       } catch (Exception e) {
         success = false;
       }
-      System.err.printf("%s %s %s %s\n", success ? "----" : "FAIL", "W", type, file.getName());
+      System.err.printf(
+          "%s %s %s %s\n", success ? "----" : same ? "FAIL" : "PARA", "W", type, file.getName());
       all_succeeded &= success;
     }
     return all_succeeded;
@@ -1,9 +1,31 @@
 package flabbergast;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class TestTaskMaster extends TaskMaster {
+  private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+  /** Check if an error containing the text has been reported. */
+  public boolean hasReported(String text) {
+    synchronized (errors) {
+      for (String error : errors) {
+        if (error.contains(text)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   @Override
-  public void reportExternalError(String uri, LibraryFailure failure) {}
+  public void reportExternalError(String uri, LibraryFailure failure) {
+    errors.add(String.format("%s: %s", uri, failure));
+  }
 
   @Override
-  public void reportOtherError(SourceReference reference, String message) {}
+  public void reportOtherError(SourceReference reference, String message) {
+    errors.add(message);
+  }
 }